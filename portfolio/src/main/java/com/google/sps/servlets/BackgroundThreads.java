@@ -0,0 +1,46 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** 
+ * Creates threads for work that outlives a request. On App Engine these are
+ * {@link ThreadManager} background threads, which may call App Engine APIs but
+ * need basic or manual scaling. A plain thread would have no API environment, so
+ * where background threads aren't available (auto scaling, local tools) the
+ * factory throws {@link IllegalStateException} and callers must do without.
+ */
+final class BackgroundThreads {
+
+  private BackgroundThreads() {}
+
+  static ThreadFactory newFactory(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread;
+      try {
+        thread = ThreadManager.backgroundThreadFactory().newThread(runnable);
+      } catch (RuntimeException e) {
+        throw new IllegalStateException("Background threads need basic or manual scaling", e);
+      }
+      thread.setName(name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
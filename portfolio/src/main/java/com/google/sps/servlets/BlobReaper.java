@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Finds uploaded blobs that no comment points at any more and deletes them. Each call
+ * walks one batch of blob metadata in key order and asks the Comment kind and the
+ * archive which of those blobs are still referenced, so a sweep never holds more than
+ * a batch in memory. Comments are matched by blob key only, so sweeps have to wait for
+ * {@link CommentBlobKeyMigrationServlet} to backfill it on older comments.
+ */
+final class BlobReaper {
+
+  private static final Logger logger = Logger.getLogger(BlobReaper.class.getName());
+
+  static final int BATCH_SIZE = 100;
+
+  // Datastore allows at most 30 values in an IN filter.
+  private static final int MAX_IN_VALUES = 30;
+
+  // A blob is uploaded a moment before its comment is saved, and write-behind can hold
+  // the comment back a little longer; anything younger than this may still be claimed.
+  private static final long GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+
+  /**
+   * Reaps the batch of blobs starting at {@code webSafeCursor}, or at the first blob
+   * when it is null. Returns the cursor of the next batch, or null when the sweep is done.
+   */
+  String reapBatch(String webSafeCursor) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    if (webSafeCursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(webSafeCursor));
+    }
+    QueryResultList<Entity> batch = datastore.prepare(new Query(BlobInfoFactory.KIND))
+        .asQueryResultList(fetchOptions);
+
+    long cutoffMillis = System.currentTimeMillis() - GRACE_PERIOD_MILLIS;
+    List<BlobKey> candidates = new ArrayList<>();
+    for (Entity blobInfo : batch) {
+      Date creation = (Date) blobInfo.getProperty(BlobInfoFactory.CREATION);
+      if (creation != null && creation.getTime() < cutoffMillis) {
+        candidates.add(new BlobKey(blobInfo.getKey().getName()));
+      }
+    }
+
+    Set<BlobKey> referenced =
+        findReferencedBlobKeys("Comment", CommentService.IMAGE_BLOB_KEY, candidates);
+    // Archived comments keep their images too; see CommentArchive.
+    referenced.addAll(
+        findReferencedBlobKeys(CommentArchive.SEGMENT_KIND, CommentArchive.BLOB_KEYS, candidates));
+    List<BlobKey> orphans = new ArrayList<>();
+    for (BlobKey blobKey : candidates) {
+      if (!referenced.contains(blobKey)) {
+        orphans.add(blobKey);
+      }
+    }
+    orphans = dropImageHashes(orphans, cutoffMillis);
+    if (!orphans.isEmpty()) {
+      List<Key> variants = new ArrayList<>();
+      for (BlobKey blobKey : orphans) {
+        variants.addAll(CommentImageStore.variantKeys(blobKey));
+      }
+      datastore.delete(variants);
+      blobstoreService.delete(orphans.toArray(new BlobKey[0]));
+      logger.info("Deleted " + orphans.size() + " orphaned blobs.");
+    }
+
+    return batch.size() == BATCH_SIZE ? batch.getCursor().toWebSafeString() : null;
+  }
+
+  /**
+   * Returns the blob keys that entities of {@code kind} store under {@code property},
+   * a single key or a list of them, among those that hold any of {@code blobKeys}.
+   */
+  private Set<BlobKey> findReferencedBlobKeys(String kind, String property,
+                                              List<BlobKey> blobKeys) {
+    Set<BlobKey> referenced = new HashSet<>();
+    for (int start = 0; start < blobKeys.size(); start += MAX_IN_VALUES) {
+      List<BlobKey> chunk =
+          blobKeys.subList(start, Math.min(start + MAX_IN_VALUES, blobKeys.size()));
+      // A property filtered with IN can't also be projected, so fetch the few matches.
+      Query query = new Query(kind)
+          .setKeysOnly()
+          .setFilter(new FilterPredicate(property, FilterOperator.IN, chunk));
+      List<Key> matches = new ArrayList<>();
+      for (Entity entity : datastore.prepare(query).asIterable()) {
+        matches.add(entity.getKey());
+      }
+      for (Entity entity : datastore.get(matches).values()) {
+        Object value = entity.getProperty(property);
+        if (value instanceof Collection) {
+          for (Object blobKey : (Collection<?>) value) {
+            referenced.add((BlobKey) blobKey);
+          }
+        } else {
+          referenced.add((BlobKey) value);
+        }
+      }
+    }
+    return referenced;
+  }
+
+  /**
+   * Deletes the {@link ImageDeduplicator} entries of {@code orphans} so no new upload
+   * is pointed at a blob that is about to go. Each entry is deleted in a transaction
+   * that checks again that no upload reused the blob since {@code cutoffMillis}; a blob
+   * whose entry was reused, or couldn't be deleted, may be about to be claimed by a
+   * comment, so it is left out of the returned list and kept.
+   */
+  private List<BlobKey> dropImageHashes(List<BlobKey> orphans, long cutoffMillis) {
+    Set<BlobKey> kept = new HashSet<>();
+    for (int start = 0; start < orphans.size(); start += MAX_IN_VALUES) {
+      List<BlobKey> chunk =
+          orphans.subList(start, Math.min(start + MAX_IN_VALUES, orphans.size()));
+      Query query = new Query(ImageDeduplicator.HASH_KIND)
+          .setKeysOnly()
+          .setFilter(new FilterPredicate(ImageDeduplicator.BLOB_KEY, FilterOperator.IN, chunk));
+      List<Key> hashKeys = new ArrayList<>();
+      for (Entity hash : datastore.prepare(query).asIterable()) {
+        hashKeys.add(hash.getKey());
+      }
+      for (Map.Entry<Key, Entity> hash : datastore.get(hashKeys).entrySet()) {
+        if (!deleteIfStale(hash.getKey(), cutoffMillis)) {
+          kept.add((BlobKey) hash.getValue().getProperty(ImageDeduplicator.BLOB_KEY));
+        }
+      }
+    }
+
+    List<BlobKey> reapable = new ArrayList<>();
+    for (BlobKey blobKey : orphans) {
+      if (!kept.contains(blobKey)) {
+        reapable.add(blobKey);
+      }
+    }
+    return reapable;
+  }
+
+  /** 
+   * Deletes the hash entry under {@code hashKey} unless it was used since
+   * {@code cutoffMillis}. Returns true if the entry is gone once this returns.
+   */
+  private boolean deleteIfStale(Key hashKey, long cutoffMillis) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity hash = datastore.get(txn, hashKey);
+      Long lastUsedMillis = (Long) hash.getProperty(ImageDeduplicator.LAST_USED_MILLIS);
+      if (lastUsedMillis != null && lastUsedMillis >= cutoffMillis) {
+        return false;
+      }
+      datastore.delete(txn, hashKey);
+      txn.commit();
+      return true;
+    } catch (EntityNotFoundException e) {
+      return true;
+    } catch (ConcurrentModificationException e) {
+      // An upload touched it meanwhile; the next sweep can look again.
+      return false;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
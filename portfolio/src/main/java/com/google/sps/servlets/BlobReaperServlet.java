@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs {@link BlobReaper} in the background. Cron (or an admin) starts a sweep with a
+ * GET; each task then reaps one batch and enqueues the next with a cursor. Until the
+ * comment blob key backfill has finished, a sweep starts that instead.
+ */
+@WebServlet(BlobReaperServlet.PATH)
+public final class BlobReaperServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/reap-blobs";
+
+  private static final Logger logger = Logger.getLogger(BlobReaperServlet.class.getName());
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final BlobReaper reaper = new BlobReaper();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    enqueueBatch(null);
+
+    response.setContentType("text/html");
+    response.getWriter().println("Blob reaping started.");
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    String cursorParam = request.getParameter("cursor");
+    // Older comments can't be matched to their blobs before the backfill, which
+    // starts a sweep itself once it finishes.
+    if (cursorParam == null && !CommentBlobKeyMigrationServlet.isFinished(datastore)) {
+      CommentBlobKeyMigrationServlet.enqueue();
+      logger.info("Blob reaping waits for the comment blob key migration.");
+      return;
+    }
+
+    String nextCursor = reaper.reapBatch(cursorParam);
+    if (nextCursor != null) {
+      enqueueBatch(nextCursor);
+    } else {
+      logger.info("Blob reaping finished.");
+    }
+  }
+
+  /** 
+   * Starts a sweep from the first blob. Failing to enqueue only delays the cleanup
+   * until the next cron run, so it is logged rather than thrown.
+   */
+  static void enqueue() {
+    try {
+      enqueueBatch(null);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not enqueue blob reaping", e);
+    }
+  }
+
+  private static void enqueueBatch(String webSafeCursor) {
+    TaskOptions task = TaskOptions.Builder.withUrl(PATH);
+    if (webSafeCursor != null) {
+      task.param("cursor", webSafeCursor);
+    }
+    QueueFactory.getDefaultQueue().add(task);
+  }
+}
@@ -14,8 +14,6 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -30,12 +28,16 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/blobstore-upload-url")
 public class BlobstoreUploadUrlServlet extends HttpServlet {
 
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    String uploadUrl = blobstoreService.createUploadUrl("/data");
+    // Pre-generated, so this rarely waits on Blobstore.
+    String uploadUrl = commentService.createUploadUrl();
 
     response.setContentType("text/html");
     response.getWriter().println(uploadUrl);
+    response.flushBuffer();
+    commentService.refillUploadUrlPoolIfRequested();
   }
 }
@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Everything the page needs on load in one response: login state and URL, an
+ * upload URL for the comment form, and the first page of comments. Replaces the
+ * separate /auth, /blobstore-upload-url and /data fetches.
+ *
+ * <p>The upload URL (usually straight from the pool) and the comment page are
+ * fetched in parallel on request-scoped threads, which App Engine lets call its APIs.
+ */
+@WebServlet("/bootstrap")
+public final class BootstrapServlet extends HttpServlet {
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    int pageSize = CommentService.DEFAULT_PAGE_SIZE;
+    String pageSizeParam = request.getParameter("pageSize");
+    if (pageSizeParam != null) {
+      try {
+        pageSize = Integer.parseInt(pageSizeParam);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid pageSize.");
+        return;
+      }
+    }
+    int firstPageSize = pageSize;
+
+    // Login state comes from the request itself, so it is cheap and decides
+    // whether an upload URL is needed at all.
+    UserService userService = UserServiceFactory.getUserService();
+    boolean loggedIn = userService.isUserLoggedIn();
+
+    ExecutorService executor = Executors.newFixedThreadPool(2,
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      Future<CommentPage> comments =
+          executor.submit(() -> commentService.getCommentsPage(null, firstPageSize));
+      Future<String> uploadUrl = loggedIn
+          ? executor.submit(commentService::createUploadUrl)
+          : null;
+
+      Bootstrap bootstrap = new Bootstrap(
+          loggedIn,
+          loggedIn ? userService.getCurrentUser().getEmail() : null,
+          loggedIn ? userService.createLogoutURL("/") : userService.createLoginURL("/"),
+          uploadUrl == null ? null : uploadUrl.get(),
+          comments.get());
+
+      response.setContentType("application/json;");
+      response.getWriter().println(new Gson().toJson(bootstrap));
+      response.flushBuffer();
+      // Replaces the URL just taken now that the page has its response.
+      commentService.refillUploadUrlPoolIfRequested();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServletException(e);
+    } catch (ExecutionException e) {
+      throw new ServletException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** The JSON document returned by /bootstrap. */
+  private static final class Bootstrap {
+    private final boolean loggedIn;
+    private final String email;
+    // Logout URL when logged in, login URL otherwise.
+    private final String authUrl;
+    private final String uploadUrl;
+    private final CommentPage comments;
+
+    Bootstrap(boolean loggedIn, String email, String authUrl, String uploadUrl,
+              CommentPage comments) {
+      this.loggedIn = loggedIn;
+      this.email = email;
+      this.authUrl = authUrl;
+      this.uploadUrl = uploadUrl;
+      this.comments = comments;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 
+ * Progress of one bulk delete, as reported by /delete-job. Background deletes run
+ * as a chain of tasks on whichever instances the queue picks, so their progress is
+ * kept in Datastore under {@link #KIND}, along with where the next task carries on.
+ * Each task's step is recorded once, in a transaction, so a retried task can't
+ * count its deletes twice.
+ */
+public final class BulkDeleteJob {
+
+  static final String KIND = "BulkDeleteJob";
+
+  public enum State { RUNNING, DONE, FAILED }
+
+  private final String id;
+  private final long startedEpochMillis;
+  private final AtomicLong deletedCount;
+  private volatile State state;
+  private volatile long finishedEpochMillis;
+  private volatile String error;
+  // Where the next background step carries on: a kind in CommentService.DELETED_KINDS
+  // and a cursor within it. Transient keeps them out of the /delete-job JSON.
+  private transient long completedSteps;
+  private transient int kindIndex;
+  private transient String cursor;
+
+  BulkDeleteJob() {
+    this(UUID.randomUUID().toString(), System.currentTimeMillis(), 0, State.RUNNING, 0, null,
+         0, 0, null);
+  }
+
+  private BulkDeleteJob(String id, long startedEpochMillis, long deletedCount, State state,
+                        long finishedEpochMillis, String error, long completedSteps,
+                        int kindIndex, String cursor) {
+    this.id = id;
+    this.startedEpochMillis = startedEpochMillis;
+    this.deletedCount = new AtomicLong(deletedCount);
+    this.state = state;
+    this.finishedEpochMillis = finishedEpochMillis;
+    this.error = error;
+    this.completedSteps = completedSteps;
+    this.kindIndex = kindIndex;
+    this.cursor = cursor;
+  }
+
+  public String getId() {
+      return id;
+  }
+
+  public State getState() {
+      return state;
+  }
+
+  public long getDeletedCount() {
+      return deletedCount.get();
+  }
+
+  void addDeleted(int count) {
+    deletedCount.addAndGet(count);
+  }
+
+  /** Number of background steps recorded so far; also the number of the next one. */
+  long getCompletedSteps() {
+    return completedSteps;
+  }
+
+  int getKindIndex() {
+    return kindIndex;
+  }
+
+  /** Web-safe cursor within the current kind, or null to start at its beginning. */
+  String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Records a background step that deleted {@code count} entities and stopped at
+   * {@code nextCursor}, or exhausted its kind if that is null.
+   */
+  void completeStep(int count, String nextCursor) {
+    deletedCount.addAndGet(count);
+    completedSteps++;
+    cursor = nextCursor;
+    if (nextCursor == null) {
+      kindIndex++;
+    }
+  }
+
+  void finish() {
+    finishedEpochMillis = System.currentTimeMillis();
+    state = State.DONE;
+  }
+
+  void fail(Throwable cause) {
+    finishedEpochMillis = System.currentTimeMillis();
+    error = cause.toString();
+    state = State.FAILED;
+  }
+
+  static Key keyOf(String id) {
+    return KeyFactory.createKey(KIND, id);
+  }
+
+  Entity toEntity() {
+    Entity entity = new Entity(keyOf(id));
+    entity.setUnindexedProperty("startedEpochMillis", startedEpochMillis);
+    entity.setUnindexedProperty("deletedCount", deletedCount.get());
+    entity.setUnindexedProperty("state", state.name());
+    entity.setUnindexedProperty("finishedEpochMillis", finishedEpochMillis);
+    entity.setUnindexedProperty("error", error);
+    entity.setUnindexedProperty("completedSteps", completedSteps);
+    entity.setUnindexedProperty("kindIndex", (long) kindIndex);
+    entity.setUnindexedProperty("cursor", cursor);
+    return entity;
+  }
+
+  static BulkDeleteJob fromEntity(Entity entity) {
+    return new BulkDeleteJob(entity.getKey().getName(),
+                             (Long) entity.getProperty("startedEpochMillis"),
+                             (Long) entity.getProperty("deletedCount"),
+                             State.valueOf((String) entity.getProperty("state")),
+                             (Long) entity.getProperty("finishedEpochMillis"),
+                             (String) entity.getProperty("error"),
+                             longProperty(entity, "completedSteps"),
+                             (int) longProperty(entity, "kindIndex"),
+                             (String) entity.getProperty("cursor"));
+  }
+
+  // Jobs saved before steps were recorded have none of the step properties.
+  private static long longProperty(Entity entity, String name) {
+    Object value = entity.getProperty(name);
+    return value instanceof Long ? (Long) value : 0;
+  }
+}
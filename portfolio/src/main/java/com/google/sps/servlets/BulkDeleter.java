@@ -0,0 +1,128 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Deletes every entity of a kind without loading any of them: a keys-only query
+ * feeds batches of keys to {@link AsyncDatastoreService#delete(Iterable)}, with a
+ * few batches in flight at a time.
+ */
+final class BulkDeleter {
+
+  // Datastore accepts at most 500 keys per delete call.
+  static final int BATCH_SIZE = 500;
+  static final int MAX_BATCHES_IN_FLIGHT = 4;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final AsyncDatastoreService asyncDatastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+
+  /** Deletes all entities of {@code kind}, adding each finished batch to {@code job}. */
+  void deleteKind(String kind, BulkDeleteJob job) {
+    Query query = new Query(kind).setKeysOnly();
+    Iterable<Entity> entities =
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(BATCH_SIZE));
+
+    Deque<PendingBatch> inFlight = new ArrayDeque<>();
+    List<Key> batch = new ArrayList<>(BATCH_SIZE);
+    for (Entity entity : entities) {
+      batch.add(entity.getKey());
+      if (batch.size() == BATCH_SIZE) {
+        if (inFlight.size() == MAX_BATCHES_IN_FLIGHT) {
+          awaitBatch(inFlight.removeFirst(), job::addDeleted);
+        }
+        inFlight.addLast(new PendingBatch(asyncDatastore.delete(batch), batch.size()));
+        batch = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+    if (!batch.isEmpty()) {
+      inFlight.addLast(new PendingBatch(asyncDatastore.delete(batch), batch.size()));
+    }
+    while (!inFlight.isEmpty()) {
+      awaitBatch(inFlight.removeFirst(), job::addDeleted);
+    }
+  }
+
+  /**
+   * Deletes the next {@link #MAX_BATCHES_IN_FLIGHT} batches of {@code kind} after
+   * {@code webSafeCursor} (from the start if it is null), for callers that work
+   * through a kind one bounded step at a time. Each finished batch's size goes to
+   * {@code deleted}. Returns the cursor to carry on from, or null once the kind is
+   * exhausted.
+   */
+  String deleteBatches(String kind, String webSafeCursor, IntConsumer deleted) {
+    FetchOptions fetchOptions =
+        FetchOptions.Builder.withLimit(BATCH_SIZE * MAX_BATCHES_IN_FLIGHT);
+    if (webSafeCursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(webSafeCursor));
+    }
+    QueryResultList<Entity> entities =
+        datastore.prepare(new Query(kind).setKeysOnly()).asQueryResultList(fetchOptions);
+
+    List<PendingBatch> inFlight = new ArrayList<>(MAX_BATCHES_IN_FLIGHT);
+    for (int start = 0; start < entities.size(); start += BATCH_SIZE) {
+      List<Key> batch = new ArrayList<>(BATCH_SIZE);
+      for (Entity entity : entities.subList(start, Math.min(start + BATCH_SIZE, entities.size()))) {
+        batch.add(entity.getKey());
+      }
+      inFlight.add(new PendingBatch(asyncDatastore.delete(batch), batch.size()));
+    }
+    for (PendingBatch pending : inFlight) {
+      awaitBatch(pending, deleted);
+    }
+    return entities.size() < fetchOptions.getLimit()
+        ? null
+        : entities.getCursor().toWebSafeString();
+  }
+
+  private static void awaitBatch(PendingBatch pending, IntConsumer deleted) {
+    try {
+      pending.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while deleting", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Batch delete failed", e.getCause());
+    }
+    deleted.accept(pending.size);
+  }
+
+  private static final class PendingBatch {
+    private final Future<Void> result;
+    private final int size;
+
+    PendingBatch(Future<Void> result, int size) {
+      this.result = result;
+      this.size = size;
+    }
+  }
+}
@@ -14,22 +14,70 @@
 
 package com.google.sps.servlets;
 
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+
 /** This class sets the text and date data for a {@code Comment} */
-public final class Comment {
+public final class Comment implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final DateTimeFormatter DISPLAY_FORMATTER =
+      DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM, FormatStyle.SHORT)
+                       .withZone(ZoneOffset.UTC);
 
-  // postedDateTime should appear like this: Jun 11, 2020 11:18 AM   
+  // Datastore key id; 0 until the comment has been saved.
+  private final long id;
+  // Stored and sorted on; postedDateTime is only derived from it for display.
+  private final long postedEpochMillis;
+  // postedDateTime should appear like this: Jun 11, 2020 11:18 AM UTC
   private final String postedDateTime;
   private final String email;
   private final String title;
   private final String text;
   private final String imageUrl;
+  private final String thumbnailUrl;
+
+  public Comment(long postedEpochMillis, String email, String title, String text, String imageUrl) {
+    this(postedEpochMillis, email, title, text, imageUrl, null);
+  }
 
-  public Comment(String postedDateTime, String email, String title, String text, String imageUrl) {
-    this.postedDateTime = postedDateTime;
+  public Comment(long postedEpochMillis, String email, String title, String text,
+                 String imageUrl, String thumbnailUrl) {
+    this(0, postedEpochMillis, email, title, text, imageUrl, thumbnailUrl);
+  }
+
+  public Comment(long id, long postedEpochMillis, String email, String title, String text,
+                 String imageUrl, String thumbnailUrl) {
+    this.id = id;
+    this.postedEpochMillis = postedEpochMillis;
+    this.postedDateTime = formatPostedTime(postedEpochMillis);
     this.email = email;
     this.title = title;
     this.text = text;
     this.imageUrl = imageUrl;
+    this.thumbnailUrl = thumbnailUrl;
+  }
+
+  /** Formats a posting time the way comments are shown on the page. */
+  public static String formatPostedTime(long epochMillis) {
+    return DISPLAY_FORMATTER.format(Instant.ofEpochMilli(epochMillis)) + " UTC";
+  }
+
+  /** Returns a copy of this comment carrying the id it was saved under. */
+  public Comment withId(long id) {
+    return new Comment(id, postedEpochMillis, email, title, text, imageUrl, thumbnailUrl);
+  }
+
+  public long getId() {
+      return id;
+  }
+
+  public long getPostedEpochMillis() {
+      return postedEpochMillis;
   }
 
   public String getPostedDateTime() {
@@ -51,4 +99,8 @@ public final class Comment {
   public String getImageUrl() {
       return imageUrl;
   }
+
+  public String getThumbnailUrl() {
+      return thumbnailUrl;
+  }
 }
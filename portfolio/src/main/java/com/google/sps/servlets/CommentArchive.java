@@ -0,0 +1,224 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for old comments. The archival job moves the oldest live comments
+ * into append-only segments: each CommentArchiveSegment entity holds a run of
+ * comments, oldest last, as one gzipped blob. The segment's key name starts with
+ * its newest posting time, zero-padded, so sorting segments by key orders them in
+ * time and a key range scan is the index; the entity also records the time range
+ * and count it covers. Segments never change once written, so decoded ones are
+ * cached for good.
+ *
+ * <p>Pages read from the archive use cursors of the form
+ * {@code archive:<segment>:<offset>}, which {@link CommentService} hands out once a
+ * listing pages past the last live comment.
+ */
+final class CommentArchive {
+
+  static final String SEGMENT_KIND = "CommentArchiveSegment";
+  static final String CURSOR_PREFIX = "archive:";
+
+  // Indexed so the blob reaper sees images that only archived comments still show.
+  static final String BLOB_KEYS = "blobKeys";
+  // Images of comments without a blob key, indexed for CommentBlobKeyMigrationServlet.
+  static final String IMAGE_URLS = "imageUrls";
+
+  static final int SEGMENT_SIZE = 500;
+
+  // A segment is one entity, so it has to stay under the 1 MB entity limit.
+  private static final int MAX_SEGMENT_BYTES = 900 * 1024;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final LruCache<String, Comment[]> segments = new LruCache<>(16);
+
+  static boolean isArchiveCursor(String webSafeCursor) {
+    return webSafeCursor != null && webSafeCursor.startsWith(CURSOR_PREFIX);
+  }
+
+  /**
+   * Returns up to {@code pageSize} archived comments, newest first, starting at
+   * {@code archiveCursor}, or at the newest archived comment if it is null.
+   *
+   * @throws IllegalArgumentException if {@code archiveCursor} is not an archive cursor.
+   */
+  CommentPage readPage(String archiveCursor, int pageSize) {
+    String segmentName;
+    int offset;
+    if (archiveCursor == null) {
+      segmentName = nextOlderSegment(null);
+      offset = 0;
+    } else {
+      String[] parts = archiveCursor.substring(CURSOR_PREFIX.length()).split(":");
+      try {
+        segmentName = parts[0];
+        offset = Integer.parseInt(parts[1]);
+      } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid archive cursor: " + archiveCursor, e);
+      }
+    }
+
+    List<Comment> comments = new ArrayList<>(pageSize);
+    while (segmentName != null && comments.size() < pageSize) {
+      Comment[] segment = loadSegment(segmentName);
+      int end = Math.min(segment.length, offset + pageSize - comments.size());
+      for (int i = offset; i < end; i++) {
+        comments.add(segment[i]);
+      }
+      offset = end;
+      if (offset >= segment.length) {
+        segmentName = nextOlderSegment(segmentName);
+        offset = 0;
+      }
+    }
+    String nextCursor = segmentName == null ? null : CURSOR_PREFIX + segmentName + ":" + offset;
+    return new CommentPage(comments, nextCursor);
+  }
+
+  /**
+   * Moves the oldest live comments posted before {@code cutoffMillis} into a new
+   * segment, at most {@link #SEGMENT_SIZE} of them, and returns how many moved.
+   * The segment is written before the comments are deleted, and is named after its
+   * contents, so a run cut short is simply repeated by the next one.
+   */
+  int archiveBatch(long cutoffMillis) {
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate(CommentService.POSTED_EPOCH_MILLIS,
+                                       FilterOperator.LESS_THAN, cutoffMillis))
+        .addSort(CommentService.POSTED_EPOCH_MILLIS, SortDirection.ASCENDING);
+    List<Entity> oldest =
+        datastore.prepare(query).asList(FetchOptions.Builder.withLimit(SEGMENT_SIZE));
+
+    int count = oldest.size();
+    while (count > 0) {
+      List<Entity> batch = oldest.subList(0, count);
+      byte[] encoded = encode(batch);
+      if (encoded.length <= MAX_SEGMENT_BYTES) {
+        datastore.put(toSegment(batch, encoded));
+        datastore.delete(batch.stream().map(Entity::getKey).collect(Collectors.toList()));
+        return count;
+      }
+      count /= 2;
+    }
+    return 0;
+  }
+
+  /** Returns the key name of the newest segment older than {@code segmentName}, or null. */
+  private String nextOlderSegment(String segmentName) {
+    Query query = new Query(SEGMENT_KIND)
+        .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.DESCENDING)
+        .setKeysOnly();
+    if (segmentName != null) {
+      query.setFilter(new FilterPredicate(Entity.KEY_RESERVED_PROPERTY, FilterOperator.LESS_THAN,
+                                          KeyFactory.createKey(SEGMENT_KIND, segmentName)));
+    }
+    List<Entity> next = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(1));
+    return next.isEmpty() ? null : next.get(0).getKey().getName();
+  }
+
+  /** Returns the comments of a segment, newest first. */
+  private Comment[] loadSegment(String segmentName) {
+    Comment[] comments = segments.get(segmentName);
+    if (comments != null) {
+      return comments;
+    }
+    Entity segment;
+    try {
+      segment = datastore.get(KeyFactory.createKey(SEGMENT_KIND, segmentName));
+    } catch (EntityNotFoundException e) {
+      throw new IllegalArgumentException("No archive segment " + segmentName, e);
+    }
+    byte[] bytes = ((Blob) segment.getProperty("comments")).getBytes();
+    try (ObjectInputStream in =
+             new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)))) {
+      comments = (Comment[]) in.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("Unreadable archive segment " + segmentName, e);
+    }
+    segments.put(segmentName, comments);
+    return comments;
+  }
+
+  /** Serializes {@code oldestFirst} newest first, the order pages are read in. */
+  private static byte[] encode(List<Entity> oldestFirst) {
+    Comment[] newestFirst = new Comment[oldestFirst.size()];
+    for (int i = 0; i < newestFirst.length; i++) {
+      newestFirst[i] = CommentService.toComment(oldestFirst.get(newestFirst.length - 1 - i));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+      out.writeObject(newestFirst);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not encode archive segment", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Entity toSegment(List<Entity> oldestFirst, byte[] encoded) {
+    Entity oldest = oldestFirst.get(0);
+    Entity newest = oldestFirst.get(oldestFirst.size() - 1);
+    long minPostedEpochMillis = (Long) oldest.getProperty(CommentService.POSTED_EPOCH_MILLIS);
+    long maxPostedEpochMillis = (Long) newest.getProperty(CommentService.POSTED_EPOCH_MILLIS);
+
+    // Zero-padded so key order is time order; the id keeps names unique.
+    String name = String.format("%020d-%d", maxPostedEpochMillis, newest.getKey().getId());
+    Entity segment = new Entity(SEGMENT_KIND, name);
+    segment.setProperty("minPostedEpochMillis", minPostedEpochMillis);
+    segment.setProperty("maxPostedEpochMillis", maxPostedEpochMillis);
+    segment.setUnindexedProperty("count", oldestFirst.size());
+    segment.setUnindexedProperty("comments", new Blob(encoded));
+
+    List<BlobKey> blobKeys = new ArrayList<>();
+    List<String> imageUrls = new ArrayList<>();
+    for (Entity comment : oldestFirst) {
+      if (comment.hasProperty(CommentService.IMAGE_BLOB_KEY)) {
+        blobKeys.add((BlobKey) comment.getProperty(CommentService.IMAGE_BLOB_KEY));
+      } else if (comment.getProperty("imageUrl") != null) {
+        imageUrls.add((String) comment.getProperty("imageUrl"));
+      }
+    }
+    if (!blobKeys.isEmpty()) {
+      segment.setProperty(BLOB_KEYS, blobKeys);
+    }
+    if (!imageUrls.isEmpty()) {
+      segment.setProperty(IMAGE_URLS, imageUrls);
+    }
+    return segment;
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Moves comments older than {@code comments.archiveAfterDays} into the comment
+ * archive. Cron (or an admin) starts a run with a GET; each task then archives one
+ * segment and enqueues the next until nothing old enough is left.
+ */
+@WebServlet(CommentArchiveServlet.PATH)
+public final class CommentArchiveServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/archive-comments";
+
+  private static final Logger logger = Logger.getLogger(CommentArchiveServlet.class.getName());
+
+  private static final int DEFAULT_ARCHIVE_AFTER_DAYS = 90;
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    // Fix the cutoff for the whole run so it can't chase comments as they age.
+    long archiveAfterMillis = TimeUnit.DAYS.toMillis(
+        Integer.getInteger("comments.archiveAfterDays", DEFAULT_ARCHIVE_AFTER_DAYS));
+    enqueueBatch(System.currentTimeMillis() - archiveAfterMillis);
+
+    response.setContentType("text/html");
+    response.getWriter().println("Comment archival started.");
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    long cutoffMillis;
+    try {
+      cutoffMillis = Long.parseLong(request.getParameter("cutoff"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cutoff.");
+      return;
+    }
+
+    int archived = commentService.archiveOldComments(cutoffMillis);
+    logger.info("Archived " + archived + " comments.");
+    if (archived > 0) {
+      enqueueBatch(cutoffMillis);
+    } else {
+      logger.info("Comment archival finished.");
+    }
+  }
+
+  private static void enqueueBatch(long cutoffMillis) {
+    QueueFactory.getDefaultQueue().add(
+        TaskOptions.Builder.withUrl(PATH).param("cutoff", Long.toString(cutoffMillis)));
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ImagesServiceFailureException;
+import com.google.appengine.api.images.ServingUrlOptions;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Backfills the image blob key on comments saved when only the image's serving URL
+ * was stored, live or archived, so {@link BlobReaper} can match every image by blob
+ * key. Asking for a blob's serving URL again returns the same URL; each task does
+ * that for one batch of blobs and sets the key on the comments showing those URLs,
+ * then enqueues the next batch with a cursor. The last batch records that the
+ * backfill is done and starts a blob sweep, which waits until then.
+ */
+@WebServlet(CommentBlobKeyMigrationServlet.PATH)
+public final class CommentBlobKeyMigrationServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/migrate-comment-blob-keys";
+
+  private static final Logger logger =
+      Logger.getLogger(CommentBlobKeyMigrationServlet.class.getName());
+
+  // One IN filter's worth; Datastore allows at most 30 values.
+  private static final int BATCH_SIZE = 30;
+
+  private static final Key DONE_KEY = KeyFactory.createKey("Migration", "comment-blob-keys");
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final ImagesService imagesService = ImagesServiceFactory.getImagesService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    enqueueBatch(null);
+
+    response.setContentType("text/html");
+    response.getWriter().println("Comment blob key migration started.");
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursorParam = request.getParameter("cursor");
+    if (cursorParam != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursorParam));
+    }
+    QueryResultList<Entity> batch = datastore.prepare(new Query(BlobInfoFactory.KIND).setKeysOnly())
+        .asQueryResultList(fetchOptions);
+
+    Map<String, BlobKey> blobKeysByUrl = new HashMap<>();
+    for (Entity blobInfo : batch) {
+      BlobKey blobKey = new BlobKey(blobInfo.getKey().getName());
+      String servingUrl = servingUrlPath(blobKey);
+      if (servingUrl != null) {
+        blobKeysByUrl.put(servingUrl, blobKey);
+      }
+    }
+    if (!blobKeysByUrl.isEmpty()) {
+      List<Entity> migrated = new ArrayList<>();
+      migrated.addAll(migrateComments(blobKeysByUrl));
+      migrated.addAll(migrateSegments(blobKeysByUrl));
+      datastore.put(migrated);
+    }
+
+    if (batch.size() == BATCH_SIZE) {
+      enqueueBatch(batch.getCursor().toWebSafeString());
+    } else {
+      Entity done = new Entity(DONE_KEY);
+      done.setUnindexedProperty("finishedEpochMillis", System.currentTimeMillis());
+      datastore.put(done);
+      logger.info("Comment blob key migration finished.");
+      BlobReaperServlet.enqueue();
+    }
+  }
+
+  /** Returns the path of {@code blobKey}'s serving URL, or null if it isn't an image. */
+  private String servingUrlPath(BlobKey blobKey) {
+    try {
+      return new URL(imagesService.getServingUrl(
+          ServingUrlOptions.Builder.withBlobKey(blobKey))).getPath();
+    } catch (MalformedURLException | IllegalArgumentException | ImagesServiceFailureException e) {
+      return null;
+    }
+  }
+
+  private List<Entity> migrateComments(Map<String, BlobKey> blobKeysByUrl) {
+    Query query = new Query("Comment").setFilter(
+        new FilterPredicate("imageUrl", FilterOperator.IN, new ArrayList<>(blobKeysByUrl.keySet())));
+    List<Entity> migrated = new ArrayList<>();
+    for (Entity comment : datastore.prepare(query).asIterable()) {
+      if (!comment.hasProperty(CommentService.IMAGE_BLOB_KEY)) {
+        comment.setProperty(CommentService.IMAGE_BLOB_KEY,
+                            blobKeysByUrl.get((String) comment.getProperty("imageUrl")));
+        migrated.add(comment);
+      }
+    }
+    return migrated;
+  }
+
+  // Segment contents never change; only the index properties move from URL to blob key.
+  private List<Entity> migrateSegments(Map<String, BlobKey> blobKeysByUrl) {
+    Query query = new Query(CommentArchive.SEGMENT_KIND).setFilter(new FilterPredicate(
+        CommentArchive.IMAGE_URLS, FilterOperator.IN, new ArrayList<>(blobKeysByUrl.keySet())));
+    List<Entity> migrated = new ArrayList<>();
+    for (Entity segment : datastore.prepare(query).asIterable()) {
+      List<BlobKey> blobKeys = listProperty(segment, CommentArchive.BLOB_KEYS);
+      List<String> imageUrls = new ArrayList<>();
+      for (String imageUrl : this.<String>listProperty(segment, CommentArchive.IMAGE_URLS)) {
+        BlobKey blobKey = blobKeysByUrl.get(imageUrl);
+        if (blobKey != null) {
+          blobKeys.add(blobKey);
+        } else {
+          imageUrls.add(imageUrl);
+        }
+      }
+      segment.setProperty(CommentArchive.BLOB_KEYS, blobKeys);
+      if (imageUrls.isEmpty()) {
+        segment.removeProperty(CommentArchive.IMAGE_URLS);
+      } else {
+        segment.setProperty(CommentArchive.IMAGE_URLS, imageUrls);
+      }
+      migrated.add(segment);
+    }
+    return migrated;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> List<T> listProperty(Entity entity, String name) {
+    Collection<T> values = (Collection<T>) entity.getProperty(name);
+    return values == null ? new ArrayList<>() : new ArrayList<>(values);
+  }
+
+  /** Returns whether every comment's image blob key has been backfilled. */
+  static boolean isFinished(DatastoreService datastore) {
+    try {
+      datastore.get(DONE_KEY);
+      return true;
+    } catch (EntityNotFoundException e) {
+      return false;
+    }
+  }
+
+  /** Starts the backfill from the first blob. */
+  static void enqueue() {
+    enqueueBatch(null);
+  }
+
+  private static void enqueueBatch(String webSafeCursor) {
+    TaskOptions task = TaskOptions.Builder.withUrl(PATH);
+    if (webSafeCursor != null) {
+      task.param("cursor", webSafeCursor);
+    }
+    QueueFactory.getDefaultQueue().add(task);
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache for comment queries. Lookups go to a bounded in-process LRU
+ * first, then to the {@link SharedCache}, and only then to the loader.
+ *
+ * <p>Every key is prefixed with the current comment generation. Writes call
+ * {@link #invalidate()}, which bumps the generation in the shared tier, so all
+ * instances stop seeing the old entries at once and those simply age out.
+ *
+ * <p>The loaders run global queries, which are only eventually consistent: for a
+ * short while after a write they can still miss it. Results loaded in that window
+ * are returned but not cached, or the miss would be served under the new
+ * generation until the next write.
+ */
+final class CommentCache {
+
+  private static final String GENERATION_KEY = "comment-generation";
+  static final String LAST_MODIFIED_KEY = "comment-last-modified";
+  private static final String CLEAR_COUNT_KEY = "comment-clear-count";
+  private static final int LOCAL_CAPACITY = 128;
+
+  // How long after a write a global query may still not see it.
+  static final long CONSISTENCY_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final LruCache<String, Object> local = new LruCache<>(LOCAL_CAPACITY);
+  private final SharedCache shared;
+
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong sharedHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  CommentCache(SharedCache shared) {
+    this.shared = shared;
+  }
+
+  /** Returns the cached value for {@code key}, loading and caching it on a miss. */
+  @SuppressWarnings("unchecked")
+  <T> T get(String key, Supplier<T> loader) {
+    String versionedKey = getGeneration() + ":" + key;
+
+    Object value = local.get(versionedKey);
+    if (value != null) {
+      localHits.incrementAndGet();
+      return (T) value;
+    }
+
+    value = shared.get(versionedKey);
+    if (value != null) {
+      sharedHits.incrementAndGet();
+      local.put(versionedKey, value);
+      return (T) value;
+    }
+
+    misses.incrementAndGet();
+    // Checked before the query runs; a write while it runs moves the generation on anyway.
+    boolean settled = isSettled();
+    T loaded = loader.get();
+    if (settled) {
+      local.put(versionedKey, loaded);
+      shared.put(versionedKey, loaded);
+    }
+    return loaded;
+  }
+
+  /** 
+   * Returns false until {@link #CONSISTENCY_WINDOW_MILLIS} after the last write, while
+   * a query may still miss it. Query results from then must not be cached or tagged.
+   */
+  boolean isSettled() {
+    return isSettled(getLastModifiedMillis());
+  }
+
+  /** Same as {@link #isSettled()}, for a last-modified time the caller already read. */
+  static boolean isSettled(long lastModifiedMillis) {
+    return System.currentTimeMillis() - lastModifiedMillis >= CONSISTENCY_WINDOW_MILLIS;
+  }
+
+  /** 
+   * Returns the current comment generation. A missing counter (e.g. evicted) is
+   * recreated from the clock so it never repeats a value handed out before.
+   */
+  long getGeneration() {
+    return shared.increment(GENERATION_KEY, 0, System.currentTimeMillis());
+  }
+
+  /** 
+   * Returns when comments last changed, in epoch millis. If the shared tier lost
+   * the timestamp it restarts at now, which only makes clients refetch once.
+   */
+  long getLastModifiedMillis() {
+    return shared.increment(LAST_MODIFIED_KEY, 0, System.currentTimeMillis());
+  }
+
+  /** Makes every entry cached so far unreachable. Call after any comment write. */
+  void invalidate() {
+    shared.put(LAST_MODIFIED_KEY, System.currentTimeMillis());
+    shared.increment(GENERATION_KEY, 1, System.currentTimeMillis());
+  }
+
+  /** 
+   * Returns a number that changes whenever comments are deleted, archived or
+   * written too late to be caught up on incrementally, for state that can absorb
+   * new comments incrementally but must start over after a delete.
+   */
+  long getClearCount() {
+    return shared.increment(CLEAR_COUNT_KEY, 0, System.currentTimeMillis());
+  }
+
+  /** 
+   * Records that comments were deleted or archived, or written long after their
+   * posting time. Call before {@link #invalidate()}.
+   */
+  void recordClear() {
+    shared.increment(CLEAR_COUNT_KEY, 1, System.currentTimeMillis());
+  }
+
+  long getHits() {
+    return localHits.get() + sharedHits.get();
+  }
+
+  long getLocalHits() {
+    return localHits.get();
+  }
+
+  long getSharedHits() {
+    return sharedHits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+}
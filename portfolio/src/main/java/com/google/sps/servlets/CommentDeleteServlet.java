@@ -0,0 +1,119 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs a delete started with DELETE /data?async=true. Each task runs one step of
+ * the job: a few batches of one kind from {@link CommentService#DELETED_KINDS},
+ * from the cursor the job has stored. It then enqueues the next step, or finishes
+ * the job after the last kind. No thread outlives the request that started it.
+ *
+ * <p>Steps are numbered and their tasks named after the job and number, so a
+ * retried task neither counts its deletes twice nor starts a second chain. A step
+ * that fails {@link #MAX_ATTEMPTS} times marks the job failed instead of retrying
+ * forever.
+ */
+@WebServlet(CommentDeleteServlet.PATH)
+public final class CommentDeleteServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/delete-comments";
+  static final int MAX_ATTEMPTS = 5;
+
+  private static final Logger logger = Logger.getLogger(CommentDeleteServlet.class.getName());
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    String jobId = request.getParameter("job");
+    long step;
+    try {
+      step = Long.parseLong(request.getParameter("step"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid step.");
+      return;
+    }
+    BulkDeleteJob job = jobId == null ? null : commentService.getDeleteJob(jobId);
+    if (job == null || job.getState() != BulkDeleteJob.State.RUNNING
+        || step > job.getCompletedSteps()) {
+      // Retrying can't fix a task for a missing or settled job; let the queue drop it.
+      logger.warning("Dropping delete task for job " + jobId + ", step " + step);
+      return;
+    }
+
+    // A lower step already ran on an earlier attempt; only its successor may be missing.
+    if (step == job.getCompletedSteps()) {
+      try {
+        job = commentService.runDeleteStep(job);
+      } catch (RuntimeException e) {
+        if (retryCount(request) + 1 < MAX_ATTEMPTS) {
+          throw e;
+        }
+        logger.log(Level.SEVERE, "Delete job " + jobId + " failed at step " + step, e);
+        commentService.failDeleteJob(job, e);
+        return;
+      }
+    }
+
+    if (job.getKindIndex() < CommentService.DELETED_KINDS.size()) {
+      enqueueStep(jobId, job.getCompletedSteps());
+    } else {
+      commentService.finishDeleteJob(job);
+      logger.info("Delete job " + jobId + " finished.");
+    }
+  }
+
+  // How many times the queue has run this task before; 0 on the first attempt.
+  private static int retryCount(HttpServletRequest request) {
+    try {
+      return Integer.parseInt(request.getHeader("X-AppEngine-TaskRetryCount"));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** Enqueues the first step of {@code job}. */
+  static void enqueue(BulkDeleteJob job) {
+    enqueueStep(job.getId(), 0);
+  }
+
+  private static void enqueueStep(String jobId, long step) {
+    TaskOptions task = TaskOptions.Builder.withUrl(PATH)
+        .taskName("delete-" + jobId + "-" + step)
+        .param("job", jobId)
+        .param("step", Long.toString(step));
+    try {
+      QueueFactory.getDefaultQueue().add(task);
+    } catch (TaskAlreadyExistsException e) {
+      // An earlier attempt of this task enqueued it already.
+    }
+  }
+}
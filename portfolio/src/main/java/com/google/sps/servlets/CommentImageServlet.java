@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** 
+ * Serves the compact copies and thumbnails made by {@link CommentImageStore}. 
+ * A stored image never changes under its name, so browsers may cache it for good.
+ */
+@WebServlet(CommentImageStore.SERVING_PATH + "*")
+public final class CommentImageServlet extends HttpServlet {
+
+  private static final long ONE_YEAR_SECONDS = 365L * 24 * 60 * 60;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String pathInfo = request.getPathInfo();
+    if (pathInfo == null || pathInfo.length() <= 1) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    String name = pathInfo.substring(1);
+
+    String etag = "\"" + name + "\"";
+    if (etag.equals(request.getHeader("If-None-Match"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    Entity image;
+    try {
+      image = datastore.get(KeyFactory.createKey(CommentImageStore.KIND, name));
+    } catch (EntityNotFoundException e) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    byte[] jpeg = ((Blob) image.getProperty(CommentImageStore.DATA)).getBytes();
+
+    response.setContentType("image/jpeg");
+    response.setContentLength(jpeg.length);
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "public, max-age=" + ONE_YEAR_SECONDS + ", immutable");
+    response.getOutputStream().write(jpeg);
+  }
+}
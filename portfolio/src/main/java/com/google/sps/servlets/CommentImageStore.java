@@ -0,0 +1,196 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Turns an uploaded image into the two JPEGs the page actually shows: a compact copy
+ * capped at {@link #COMPACT_MAX_SIDE} pixels and a thumbnail for the comment list.
+ * Only {@code javax.imageio} is used, so this works on the dev server without the
+ * Images API. The image is decoded with source subsampling, so a large photo never
+ * has to be held in memory at full resolution, and the re-encoded copies carry no
+ * metadata. Both are stored as CommentImage entities named after the original blob.
+ */
+final class CommentImageStore {
+
+  static final String KIND = "CommentImage";
+  static final String SERVING_PATH = "/comment-images/";
+  static final String DATA = "data";
+
+  static final int COMPACT_MAX_SIDE = 1280;
+  static final int THUMBNAIL_MAX_SIDE = 240;
+
+  private static final Logger logger = Logger.getLogger(CommentImageStore.class.getName());
+
+  private static final String COMPACT_SUFFIX = "-compact";
+  private static final String THUMBNAIL_SUFFIX = "-thumb";
+
+  // Each variant is one entity, so it has to fit well inside the 1 MB entity limit.
+  private static final int MAX_VARIANT_BYTES = 900 * 1024;
+  private static final float[] JPEG_QUALITIES = {0.85f, 0.7f, 0.5f};
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  /**
+   * Stores the compact copy and thumbnail of {@code blobKey} and returns their URLs,
+   * or returns null if the blob isn't an image that ImageIO can read.
+   */
+  UploadedImage process(BlobKey blobKey) {
+    BufferedImage compact;
+    try {
+      compact = decode(blobKey);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Could not decode " + blobKey, e);
+      return null;
+    }
+    if (compact == null) {
+      return null;
+    }
+    BufferedImage thumbnail = scaleToFit(compact, THUMBNAIL_MAX_SIDE);
+
+    try {
+      datastore.put(Arrays.asList(
+          toEntity(blobKey.getKeyString() + COMPACT_SUFFIX, encodeJpeg(compact)),
+          toEntity(blobKey.getKeyString() + THUMBNAIL_SUFFIX, encodeJpeg(thumbnail))));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not encode " + blobKey, e);
+      return null;
+    }
+    return new UploadedImage(blobKey,
+                             servingUrl(blobKey.getKeyString() + COMPACT_SUFFIX),
+                             servingUrl(blobKey.getKeyString() + THUMBNAIL_SUFFIX));
+  }
+
+  /** Returns the keys of the stored copies of {@code blobKey}, whether or not they exist. */
+  static List<Key> variantKeys(BlobKey blobKey) {
+    return Arrays.asList(
+        KeyFactory.createKey(KIND, blobKey.getKeyString() + COMPACT_SUFFIX),
+        KeyFactory.createKey(KIND, blobKey.getKeyString() + THUMBNAIL_SUFFIX));
+  }
+
+  /** Decodes just enough of the blob to produce an image no larger than the compact size. */
+  private static BufferedImage decode(BlobKey blobKey) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(new BlobstoreInputStream(blobKey))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+
+        // Skip whole rows and columns while decoding, but never below the compact size.
+        int subsampling = Math.max(1, longestSide / COMPACT_MAX_SIDE);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+        return scaleToFit(reader.read(0, param), COMPACT_MAX_SIDE);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /** Returns an opaque RGB copy of {@code image} whose longest side is at most {@code maxSide}. */
+  private static BufferedImage scaleToFit(BufferedImage image, int maxSide) {
+    double scale = Math.min(1.0, (double) maxSide / Math.max(image.getWidth(), image.getHeight()));
+    int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+    // JPEG has no alpha channel, so transparent pixels are flattened onto white.
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = scaled.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, width, height);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return scaled;
+  }
+
+  /** Encodes {@code image} without metadata, lowering the quality until it fits in an entity. */
+  private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    try {
+      byte[] encoded = null;
+      for (float quality : JPEG_QUALITIES) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+          writer.setOutput(out);
+          ImageWriteParam param = writer.getDefaultWriteParam();
+          param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+          param.setCompressionQuality(quality);
+          writer.write(null, new IIOImage(image, null, null), param);
+        }
+        encoded = bytes.toByteArray();
+        if (encoded.length <= MAX_VARIANT_BYTES) {
+          return encoded;
+        }
+      }
+      throw new IOException("JPEG is still " + encoded.length + " bytes at the lowest quality");
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  private static Entity toEntity(String name, byte[] jpeg) {
+    Entity entity = new Entity(KIND, name);
+    entity.setUnindexedProperty(DATA, new Blob(jpeg));
+    return entity;
+  }
+
+  private static String servingUrl(String name) {
+    try {
+      return SERVING_PATH + URLEncoder.encode(name, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is always supported", e);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.Serializable;
+import java.util.List;
+
+/** 
+ * One page of comments plus the opaque cursor that fetches the next page.
+ * {@code nextCursor} is null once the last page has been reached.
+ */
+public final class CommentPage implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<Comment> comments;
+  private final String nextCursor;
+
+  public CommentPage(List<Comment> comments, String nextCursor) {
+    this.comments = comments;
+    this.nextCursor = nextCursor;
+  }
+
+  public List<Comment> getComments() {
+      return comments;
+  }
+
+  public String getNextCursor() {
+      return nextCursor;
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Looks comments up by id instead of querying for them:
+ * GET /data/{id} returns one comment, and POST /data/batch-get with a JSON array
+ * of ids returns the matching comments in the same order, null where an id doesn't exist.
+ */
+@WebServlet("/data/*")
+public final class CommentPermalinkServlet extends HttpServlet {
+
+  // Caps the work a single request can ask for.
+  static final int MAX_BATCH_GET_IDS = 100;
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String pathInfo = request.getPathInfo();
+    long id;
+    try {
+      id = pathInfo == null ? 0 : Long.parseLong(pathInfo.substring(1));
+    } catch (NumberFormatException e) {
+      id = 0;
+    }
+    // Datastore ids are always positive.
+    Comment comment = id > 0 ? commentService.getComment(id) : null;
+    if (comment == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(comment));
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!"/batch-get".equals(request.getPathInfo())) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    Gson gson = new Gson();
+    Long[] ids;
+    try {
+      ids = gson.fromJson(request.getReader(), Long[].class);
+    } catch (JsonParseException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON array of ids.");
+      return;
+    }
+    if (ids == null || Arrays.stream(ids).anyMatch(id -> id == null || id <= 0)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON array of ids.");
+      return;
+    }
+    if (ids.length > MAX_BATCH_GET_IDS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                         "At most " + MAX_BATCH_GET_IDS + " ids per request.");
+      return;
+    }
+
+    List<Comment> comments = commentService.getComments(Arrays.asList(ids));
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(comments));
+  }
+}
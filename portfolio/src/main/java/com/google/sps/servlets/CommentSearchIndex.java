@@ -0,0 +1,358 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory inverted index over comment titles and text, ranked with BM25.
+ *
+ * <p>Each term maps to a posting list of sorted document ids with their term
+ * frequencies. Documents only ever get appended, so lists stay sorted for free.
+ *
+ * <p>The index follows Datastore lazily. Saves and deletes bump the comment
+ * generation; the next search notices and indexes only the comments posted since
+ * the newest one it has, through the postedEpochMillis index. Comments saved on
+ * another instance, by a clock that runs behind, or by the write-behind flusher
+ * can commit after later-posted ones, so the scan starts
+ * {@link #LATE_COMMIT_WINDOW_MILLIS} earlier and skips keys already indexed.
+ * A delete also bumps the clear count, which makes the next search rebuild from
+ * scratch. Datastore is only read while no lock is held. A gzipped
+ * snapshot is kept in Datastore so a cold instance can restore instead of
+ * re-reading every comment.
+ */
+final class CommentSearchIndex {
+
+  private static final Logger logger = Logger.getLogger(CommentSearchIndex.class.getName());
+
+  static final String SNAPSHOT_KIND = "CommentSearchSnapshot";
+  private static final Key SNAPSHOT_KEY = KeyFactory.createKey(SNAPSHOT_KIND, "latest");
+  // Datastore entities are capped at 1 MiB; leave room for the other properties.
+  private static final int MAX_SNAPSHOT_BYTES = 1000 * 1000;
+  // Write a fresh snapshot once this many comments were indexed since the last one.
+  private static final int SNAPSHOT_EVERY = 100;
+  private static final int SCAN_CHUNK_SIZE = 500;
+  // How much later than a newer comment a comment may commit and still be found.
+  static final long LATE_COMMIT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  // Titles say a lot about a comment, so their terms count double.
+  private static final int TITLE_WEIGHT = 2;
+  private static final double BM25_K1 = 1.2;
+  private static final double BM25_B = 0.75;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final CommentCache cache;
+  // Guards state for searches; held only while applying comments that were already read.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Lets one refresh run at a time. Only a refresh modifies state, so while holding
+  // this it may read state without the lock.
+  private final Object refreshLock = new Object();
+
+  private State state = new State();
+  // Generation and clear count of the comments the index reflects; a generation of -1
+  // means it was never loaded or the last scan may have missed a write.
+  private volatile long indexedGeneration = -1;
+  private volatile long indexedClearCount = -1;
+  private int unsnapshottedDocs;
+
+  CommentSearchIndex(CommentCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Returns up to {@code limit} comments matching any term of {@code query}, best
+   * match first.
+   */
+  List<Comment> search(String query, int limit) {
+    refresh();
+
+    List<String> terms = new ArrayList<>(termFrequencies(query, 1).keySet());
+    lock.readLock().lock();
+    try {
+      int docCount = state.docs.size();
+      if (terms.isEmpty() || docCount == 0 || limit <= 0) {
+        return Collections.emptyList();
+      }
+
+      double averageLength = (double) state.totalLength / docCount;
+      float[] scores = new float[docCount];
+      for (String term : terms) {
+        Postings postings = state.postings.get(term);
+        if (postings == null) {
+          continue;
+        }
+        double idf = Math.log(1 + (docCount - postings.size + 0.5) / (postings.size + 0.5));
+        for (int i = 0; i < postings.size; i++) {
+          int doc = postings.docs[i];
+          int tf = postings.freqs[i];
+          double norm = BM25_K1 * (1 - BM25_B + BM25_B * state.docLengths[doc] / averageLength);
+          scores[doc] += (float) (idf * tf * (BM25_K1 + 1) / (tf + norm));
+        }
+      }
+
+      // Keep the best {@code limit} documents in a min-heap on score.
+      PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1,
+          (a, b) -> Float.compare(scores[a], scores[b]));
+      for (int doc = 0; doc < docCount; doc++) {
+        if (scores[doc] > 0) {
+          top.add(doc);
+          if (top.size() > limit) {
+            top.poll();
+          }
+        }
+      }
+      Comment[] results = new Comment[top.size()];
+      for (int i = results.length - 1; i >= 0; i--) {
+        results[i] = state.docs.get(top.poll());
+      }
+      return Arrays.asList(results);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** 
+   * Brings the index up to date with Datastore: restores or rebuilds it when
+   * comments were deleted, otherwise indexes just the comments it hasn't seen.
+   */
+  void refresh() {
+    long generation = cache.getGeneration();
+    long clearCount = cache.getClearCount();
+    if (generation == indexedGeneration && clearCount == indexedClearCount) {
+      return;
+    }
+    // A scan this soon after a write may miss it, so the next search scans again.
+    boolean settled = cache.isSettled();
+
+    synchronized (refreshLock) {
+      if (generation == indexedGeneration && clearCount == indexedClearCount) {
+        return;
+      }
+      if (clearCount != indexedClearCount) {
+        State restored = restoreSnapshot(clearCount);
+        // Without a usable snapshot every comment is re-read, so save one afterwards.
+        unsnapshottedDocs = restored == null ? SNAPSHOT_EVERY : 0;
+        State rebuilt = restored == null ? new State() : restored;
+        // Searches can't see the new state yet, so it is filled without the lock.
+        int before = rebuilt.docs.size();
+        forEachNewComment(rebuilt, entity -> add(rebuilt, entity));
+        unsnapshottedDocs += rebuilt.docs.size() - before;
+
+        lock.writeLock().lock();
+        try {
+          state = rebuilt;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      } else {
+        List<Entity> newComments = new ArrayList<>();
+        forEachNewComment(state, newComments::add);
+        lock.writeLock().lock();
+        try {
+          for (Entity entity : newComments) {
+            if (add(state, entity)) {
+              unsnapshottedDocs++;
+            }
+          }
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      indexedGeneration = settled ? generation : -1;
+      indexedClearCount = clearCount;
+
+      if (unsnapshottedDocs >= SNAPSHOT_EVERY && !state.docs.isEmpty()) {
+        saveSnapshot();
+        unsnapshottedDocs = 0;
+      }
+    }
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return state.docs.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** 
+   * Passes {@code action} the comments {@code target} hasn't indexed, oldest first,
+   * looking back {@link #LATE_COMMIT_WINDOW_MILLIS} from the newest one it has.
+   */
+  private void forEachNewComment(State target, Consumer<Entity> action) {
+    long from = Math.max(0, target.maxPostedEpochMillis - LATE_COMMIT_WINDOW_MILLIS);
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate(CommentService.POSTED_EPOCH_MILLIS,
+                                       FilterOperator.GREATER_THAN_OR_EQUAL, from))
+        .addSort(CommentService.POSTED_EPOCH_MILLIS, SortDirection.ASCENDING);
+
+    for (Entity entity : datastore.prepare(query)
+                                  .asIterable(FetchOptions.Builder.withChunkSize(SCAN_CHUNK_SIZE))) {
+      if (!target.keys.contains(entity.getKey())) {
+        action.accept(entity);
+      }
+    }
+  }
+
+  /** Indexes {@code entity} into {@code state}; returns false if it already was. */
+  private static boolean add(State state, Entity entity) {
+    if (!state.keys.add(entity.getKey())) {
+      return false;
+    }
+    Comment comment = CommentService.toComment(entity);
+    int doc = state.docs.size();
+    state.docs.add(comment);
+
+    Map<String, Integer> frequencies = termFrequencies(comment.getText(), 1);
+    termFrequencies(comment.getTitle(), TITLE_WEIGHT)
+        .forEach((term, tf) -> frequencies.merge(term, tf, Integer::sum));
+
+    int length = 0;
+    for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+      state.postings.computeIfAbsent(entry.getKey(), term -> new Postings())
+                    .add(doc, entry.getValue());
+      length += entry.getValue();
+    }
+
+    if (doc == state.docLengths.length) {
+      state.docLengths = Arrays.copyOf(state.docLengths, Math.max(16, doc * 2));
+    }
+    state.docLengths[doc] = length;
+    state.totalLength += length;
+    state.maxPostedEpochMillis = Math.max(state.maxPostedEpochMillis, comment.getPostedEpochMillis());
+    return true;
+  }
+
+  private static Map<String, Integer> termFrequencies(String text, int weight) {
+    Map<String, Integer> frequencies = new HashMap<>();
+    if (text == null) {
+      return frequencies;
+    }
+    for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (!term.isEmpty()) {
+        frequencies.merge(term, weight, Integer::sum);
+      }
+    }
+    return frequencies;
+  }
+
+  /** Returns the stored snapshot if it was taken since the last delete, else null. */
+  private State restoreSnapshot(long clearCount) {
+    try {
+      Entity snapshot = datastore.get(SNAPSHOT_KEY);
+      Long snapshotClearCount = (Long) snapshot.getProperty("clearCount");
+      if (snapshotClearCount == null || snapshotClearCount != clearCount) {
+        return null;
+      }
+      byte[] bytes = ((Blob) snapshot.getProperty("state")).getBytes();
+      try (ObjectInputStream in =
+               new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)))) {
+        return (State) in.readObject();
+      }
+    } catch (EntityNotFoundException e) {
+      return null;
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      logger.log(Level.WARNING, "Ignoring unreadable search index snapshot", e);
+      return null;
+    }
+  }
+
+  private void saveSnapshot() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+        out.writeObject(state);
+      }
+      if (bytes.size() > MAX_SNAPSHOT_BYTES) {
+        logger.info("Search index snapshot too large to store: " + bytes.size() + " bytes");
+        return;
+      }
+      Entity snapshot = new Entity(SNAPSHOT_KEY);
+      snapshot.setUnindexedProperty("state", new Blob(bytes.toByteArray()));
+      snapshot.setUnindexedProperty("clearCount", indexedClearCount);
+      datastore.put(snapshot);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Could not save search index snapshot", e);
+    }
+  }
+
+  /** Everything the index holds; serialized as a whole for snapshots. */
+  private static final class State implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Comment> docs = new ArrayList<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Set<Key> keys = new HashSet<>();
+    private int[] docLengths = new int[16];
+    private long totalLength;
+    private long maxPostedEpochMillis;
+  }
+
+  /** Sorted document ids containing one term, with the term's frequency in each. */
+  private static final class Postings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int[] docs = new int[2];
+    private int[] freqs = new int[2];
+    private int size;
+
+    void add(int doc, int freq) {
+      if (size == docs.length) {
+        docs = Arrays.copyOf(docs, size * 2);
+        freqs = Arrays.copyOf(freqs, size * 2);
+      }
+      docs[size] = doc;
+      freqs[size] = freq;
+      size++;
+    }
+  }
+}
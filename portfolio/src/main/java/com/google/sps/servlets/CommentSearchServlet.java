@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** 
+ * Full-text search over comments, e.g. /data/search?q=great+photo&limit=5.
+ * {@link WarmupServlet} loads the index so it is built before the first search arrives.
+ */
+@WebServlet("/data/search")
+public final class CommentSearchServlet extends HttpServlet {
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter("q");
+    if (query == null || query.trim().isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing q.");
+      return;
+    }
+
+    int limit = CommentService.DEFAULT_PAGE_SIZE;
+    String limitParam = request.getParameter("limit");
+    if (limitParam != null) {
+      try {
+        limit = Integer.parseInt(limitParam);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit.");
+        return;
+      }
+    }
+
+    List<Comment> results = commentService.searchComments(query, limit);
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(results));
+  }
+}
@@ -20,21 +20,37 @@ import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.ImagesServiceFailureException; 
 import com.google.appengine.api.images.ServingUrlOptions;
+import com.google.gson.Gson;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 
@@ -44,69 +60,539 @@ import javax.servlet.http.HttpServletRequest;
  */
  public final class CommentService {
 
+  // Largest page a single request may ask for, whatever the client sends.
+  public static final int MAX_PAGE_SIZE = 50;
+  public static final int DEFAULT_PAGE_SIZE = 10;
+
+  // Indexed posting time in milliseconds since the epoch; every query sorts on it.
+  static final String POSTED_EPOCH_MILLIS = "postedEpochMillis";
+
+  // Indexed so the blob reaper can ask which blobs comments still use.
+  static final String IMAGE_BLOB_KEY = "blobKey";
+
+  // Every kind delete-all clears, in the order it clears them.
+  static final List<String> DELETED_KINDS = Collections.unmodifiableList(Arrays.asList(
+      "Comment", "__BlobUploadSession__", CommentSearchIndex.SNAPSHOT_KIND,
+      CommentArchive.SEGMENT_KIND));
+
+  private static final Logger logger = Logger.getLogger(CommentService.class.getName());
+
+  private static final long SHUTDOWN_FLUSH_TIMEOUT_MILLIS = 5000;
+  private static final long ID_BLOCK_SIZE = 100;
+
   private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final CommentCache cache;
+  private final BulkDeleter bulkDeleter = new BulkDeleter();
+  private final CommentSearchIndex searchIndex;
+  private final CommentArchive archive = new CommentArchive();
+  private final Gson gson = new Gson();
+  private final LatestCommentsView latestView;
+  private final UploadUrlPool uploadUrlPool;
+  private final CommentImageStore imageStore = new CommentImageStore();
+  private final ImageDeduplicator imageDeduplicator = new ImageDeduplicator(this::prepareImage);
+
+  // Null unless write-behind mode is on and the instance can run its flusher.
+  private final CommentWriteBehindQueue writeBehind;
+  // Ids reserved for queued comments; only used in write-behind mode.
+  private Iterator<Key> allocatedIds;
+
+  /** 
+   * Servlets share one instance through {@link CommentServiceFactory}. 
+   * With {@code writeBehind}, {@link #saveComment(Comment)} returns once the
+   * comment is queued and a background flusher writes comments in batches. The
+   * flusher needs a background thread, so without one comments are written directly.
+   */
+  CommentService(SharedCache sharedCache, boolean writeBehind) {
+    this.cache = new CommentCache(sharedCache);
+    this.searchIndex = new CommentSearchIndex(cache);
+    this.latestView = new LatestCommentsView(
+        () -> queryCommentsPage(null, LatestCommentsView.SIZE).getComments(), cache::isSettled);
+    this.uploadUrlPool = new UploadUrlPool("/data", cache::getClearCount);
+    this.writeBehind = writeBehind ? newWriteBehindQueue() : null;
+
+    Metrics.registerCounter("comment_cache_local_hits_total",
+        "Comment reads served from the in-process cache.", cache::getLocalHits);
+    Metrics.registerCounter("comment_cache_shared_hits_total",
+        "Comment reads served from the shared cache tier.", cache::getSharedHits);
+    Metrics.registerCounter("comment_cache_misses_total",
+        "Comment reads that went to Datastore.", cache::getMisses);
+    Metrics.registerGauge("comment_search_index_documents",
+        "Comments in the search index.", searchIndex::size);
+    Metrics.registerGauge("upload_url_pool_depth",
+        "Fresh upload URLs ready to hand out.", uploadUrlPool::size);
+    Metrics.registerCounter("upload_url_pool_hits_total",
+        "Upload URLs served from the pool.", uploadUrlPool::getHits);
+    Metrics.registerCounter("upload_url_pool_misses_total",
+        "Upload URLs created on the request thread.", uploadUrlPool::getMisses);
+    Metrics.registerCounter("upload_url_pool_expired_total",
+        "Pooled upload URLs dropped before use.", uploadUrlPool::getExpired);
+    Metrics.registerCounter("image_dedup_hits_total",
+        "Uploaded images that reused an earlier copy.", imageDeduplicator::getHits);
+    Metrics.registerCounter("image_dedup_misses_total",
+        "Uploaded images stored as a new blob.", imageDeduplicator::getMisses);
+    if (this.writeBehind != null) {
+      Metrics.registerGauge("comment_write_behind_queue_depth",
+          "Comments waiting to be written.", this.writeBehind::size);
+    }
+  }
  
+  private CommentWriteBehindQueue newWriteBehindQueue() {
+    try {
+      return new CommentWriteBehindQueue(this::afterFlush);
+    } catch (IllegalStateException e) {
+      logger.log(Level.WARNING, "Write-behind is off; comments are written directly", e);
+      return null;
+    }
+  }
+
   public List<Comment> getComments(int limit) {
+    return getCommentsPage(null, limit).getComments();
+  }
 
-    Query query = new Query("Comment").addSort("postedTime", SortDirection.DESCENDING);
-    PreparedQuery results = datastore.prepare(query);
+  /**
+   * Returns at most {@code pageSize} comments, newest first, starting where
+   * {@code webSafeCursor} left off (or at the newest comment if it is null).
+   * Only one page of entities is ever held in memory, and pages are served
+   * from the comment cache when possible. Paging past the last live comment
+   * carries on into {@link CommentArchive}.
+   *
+   * @throws IllegalArgumentException if {@code webSafeCursor} is not a valid cursor.
+   */
+  public CommentPage getCommentsPage(String webSafeCursor, int pageSize) {
+    int clampedPageSize = clampPageSize(pageSize);
+    return cache.get("page:" + clampedPageSize + ":" + webSafeCursor,
+                     () -> queryCommentsPage(webSafeCursor, clampedPageSize));
+  }
+
+  /**
+   * Returns {@link #getCommentsPage} as UTF-8 JSON.
+   *
+   * @throws IllegalArgumentException if {@code webSafeCursor} is not a valid cursor.
+   */
+  public byte[] getCommentsPageJson(String webSafeCursor, int pageSize) {
+    return toJson(getCommentsPage(webSafeCursor, pageSize));
+  }
+
+  /**
+   * Returns one page of the comments posted by {@code email}, newest first, paged
+   * like {@link #getCommentsPage}. The query walks the (email, postedEpochMillis)
+   * composite index, so it only ever touches that author's comments.
+   *
+   * @throws IllegalArgumentException if {@code webSafeCursor} is not a valid cursor.
+   */
+  public CommentPage getCommentsByAuthor(String email, String webSafeCursor, int pageSize) {
+    int clampedPageSize = clampPageSize(pageSize);
+    return cache.get("author:" + email + ":" + clampedPageSize + ":" + webSafeCursor,
+                     () -> queryAuthorPage(email, webSafeCursor, clampedPageSize));
+  }
+
+  /** Returns {@link #getCommentsByAuthor} as UTF-8 JSON. */
+  public byte[] getCommentsByAuthorJson(String email, String webSafeCursor, int pageSize) {
+    return toJson(getCommentsByAuthor(email, webSafeCursor, pageSize));
+  }
 
-    // Data page is updated to contain JSON file of all images up to limit. 
-    List<Comment> comments = results.asList(FetchOptions.Builder.withLimit(limit))
+  private CommentPage queryCommentsPage(String webSafeCursor, int pageSize) {
+    if (CommentArchive.isArchiveCursor(webSafeCursor)) {
+      return archive.readPage(webSafeCursor, pageSize);
+    }
+    Query query = new Query("Comment").addSort(POSTED_EPOCH_MILLIS, SortDirection.DESCENDING);
+    CommentPage live = queryPage(query, webSafeCursor, pageSize);
+    if (live.getNextCursor() != null) {
+      return live;
+    }
+
+    // The live comments ran out; fill the rest of the page from the archive.
+    CommentPage archived = archive.readPage(null, pageSize - live.getComments().size());
+    List<Comment> comments = new ArrayList<>(live.getComments());
+    comments.addAll(archived.getComments());
+    return new CommentPage(comments, archived.getNextCursor());
+  }
+
+  private CommentPage queryAuthorPage(String email, String webSafeCursor, int pageSize) {
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate("email", FilterOperator.EQUAL, email))
+        .addSort(POSTED_EPOCH_MILLIS, SortDirection.DESCENDING);
+    return queryPage(query, webSafeCursor, pageSize);
+  }
+
+  private CommentPage queryPage(Query query, String webSafeCursor, int pageSize) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(pageSize);
+    if (webSafeCursor != null && !webSafeCursor.isEmpty()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(webSafeCursor));
+    }
+
+    QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    List<Comment> comments = results.stream()
+        .map(CommentService::toComment)
+        .collect(Collectors.toList());
+
+    // A short page means there is nothing left to fetch.
+    String nextCursor = comments.size() < fetchOptions.getLimit()
+        ? null
+        : results.getCursor().toWebSafeString();
+    return new CommentPage(comments, nextCursor);
+  }
+
+  /** 
+   * Returns a number that changes whenever comments are saved or deleted.
+   * Equal generations mean every comment query returns the same result.
+   */
+  public long getGeneration() {
+    return cache.getGeneration();
+  }
+
+  /** Returns when comments were last saved or deleted, in epoch millis. */
+  public long getLastModifiedMillis() {
+    return cache.getLastModifiedMillis();
+  }
+
+  /** 
+   * Returns whether comment queries have caught up with writes up to
+   * {@code lastModifiedMillis}. Until then a listing may still miss the newest
+   * write, so responses must not be tagged for revalidation.
+   */
+  public static boolean isSettled(long lastModifiedMillis) {
+    return CommentCache.isSettled(lastModifiedMillis);
+  }
+
+  public long getCacheHits() {
+    return cache.getHits();
+  }
+
+  public long getCacheMisses() {
+    return cache.getMisses();
+  }
+
+  /**
+   * Returns up to {@code limit} comments posted at or after {@code sinceEpochMillis},
+   * newest first. This is a range scan over the postedEpochMillis index.
+   */
+  public List<Comment> getCommentsSince(long sinceEpochMillis, int limit) {
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate(POSTED_EPOCH_MILLIS,
+                                       FilterOperator.GREATER_THAN_OR_EQUAL,
+                                       sinceEpochMillis))
+        .addSort(POSTED_EPOCH_MILLIS, SortDirection.DESCENDING);
+
+    return datastore.prepare(query)
+        .asQueryResultList(FetchOptions.Builder.withLimit(clampPageSize(limit)))
         .stream()
-        .map(entity -> {
-            
-            String postedTime = (String) entity.getProperty("postedTime");
-            String email = (String) entity.getProperty("email");
-            String title = (String) entity.getProperty("title");
-            String text = (String) entity.getProperty("text");
-            String imageUrl = (String) entity.getProperty("imageUrl");
-
-            return new Comment(postedTime, email, title, text, imageUrl);
-        })
+        .map(CommentService::toComment)
         .collect(Collectors.toList());
-    return comments;
+  }
+
+  /** Returns {@link #getCommentsSince} as UTF-8 JSON. */
+  public byte[] getCommentsSinceJson(long sinceEpochMillis, int limit) {
+    return toJson(getCommentsSince(sinceEpochMillis, limit));
+  }
+
+  private byte[] toJson(Object value) {
+    return gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int clampPageSize(int pageSize) {
+    return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+  }
+
+  static Comment toComment(Entity entity) {
+    long postedEpochMillis = postedEpochMillis(entity);
+    String email = (String) entity.getProperty("email");
+    String title = (String) entity.getProperty("title");
+    String text = (String) entity.getProperty("text");
+    String imageUrl = (String) entity.getProperty("imageUrl");
+    String thumbnailUrl = (String) entity.getProperty("thumbnailUrl");
 
+    return new Comment(entity.getKey().getId(), postedEpochMillis, email, title, text,
+                       imageUrl, thumbnailUrl);
   }
   
-  /** Adds the comment to the datastore. */
-  public void saveComment(Comment comment) {
-    Entity commentEntity = new Entity("Comment");
+  /** 
+   * Returns when {@code entity} was posted. Comments the timestamp backfill hasn't
+   * reached yet only have the legacy display string; those that can't be parsed
+   * sort as the oldest.
+   */
+  private static long postedEpochMillis(Entity entity) {
+    Long postedEpochMillis = (Long) entity.getProperty(POSTED_EPOCH_MILLIS);
+    if (postedEpochMillis != null) {
+      return postedEpochMillis;
+    }
+    Long legacy = CommentTimestampMigrationServlet.parseLegacyTime(
+        (String) entity.getProperty("postedTime"));
+    return legacy != null ? legacy : 0;
+  }
+
+  /** Adds a comment without an uploaded image to the datastore. */
+  public Comment saveComment(Comment comment) {
+    return saveComment(comment, null);
+  }
+
+  /** 
+   * Adds the comment to the datastore. In write-behind mode it is queued instead,
+   * unless the queue is full, and shows up in queries once its batch is flushed.
+   * {@code imageBlobKey} records which blob the comment's image is served from,
+   * so {@link BlobReaper} knows the blob is still in use.
+   *
+   * @return the comment with the id it was saved under
+   */
+  public Comment saveComment(Comment comment, BlobKey imageBlobKey) {
+    // Queued comments need their id before they are written, so the queue gets a
+    // preallocated key; a direct put is assigned one by Datastore.
+    Entity commentEntity =
+        writeBehind == null ? new Entity("Comment") : new Entity(allocateCommentKey());
+    setCommentProperties(commentEntity, comment, imageBlobKey);
+
+    if (writeBehind == null || !writeBehind.offer(commentEntity)) {
+      datastore.put(commentEntity);
+      Comment saved = comment.withId(commentEntity.getKey().getId());
+      // The view has to be up to date before the generation moves on; see LatestCommentsView.
+      latestView.addAll(Collections.singletonList(saved));
+      cache.invalidate();
+      return saved;
+    }
+    return comment.withId(commentEntity.getKey().getId());
+  }
 
-    commentEntity.setProperty("postedTime", comment.getPostedDateTime());
-    commentEntity.setProperty("email", comment.getEmail());
-    commentEntity.setProperty("title", comment.getTitle());
-    commentEntity.setProperty("text", comment.getText());  
-    commentEntity.setProperty("imageUrl", comment.getImageUrl());
-    
-    datastore.put(commentEntity);
+  /** 
+   * Returns the entity for a comment acknowledged in write-behind mode, under the
+   * id it was acknowledged with.
+   */
+  static Entity toEntity(Comment comment, BlobKey imageBlobKey) {
+    Entity entity = new Entity(KeyFactory.createKey("Comment", comment.getId()));
+    setCommentProperties(entity, comment, imageBlobKey);
+    return entity;
   }
 
-  // Removes Comments and Blob Information from datastore. 
+  private static void setCommentProperties(Entity entity, Comment comment, BlobKey imageBlobKey) {
+    entity.setProperty(POSTED_EPOCH_MILLIS, comment.getPostedEpochMillis());
+    entity.setProperty("email", comment.getEmail());
+    entity.setProperty("title", comment.getTitle());
+    entity.setProperty("text", comment.getText());  
+    entity.setProperty("imageUrl", comment.getImageUrl());
+    entity.setUnindexedProperty("thumbnailUrl", comment.getThumbnailUrl());
+    if (imageBlobKey != null) {
+      entity.setProperty(IMAGE_BLOB_KEY, imageBlobKey);
+    }
+  }
+
+  /** Hands out Comment keys from ranges reserved {@link #ID_BLOCK_SIZE} at a time. */
+  private synchronized Key allocateCommentKey() {
+    if (allocatedIds == null || !allocatedIds.hasNext()) {
+      allocatedIds = datastore.allocateIds("Comment", ID_BLOCK_SIZE).iterator();
+    }
+    return allocatedIds.next();
+  }
+
+  /** 
+   * Returns the comment saved under {@code id}, or null if there is none. This is
+   * a single key lookup, which unlike a query always sees the latest write.
+   */
+  public Comment getComment(long id) {
+    try {
+      return toComment(datastore.get(KeyFactory.createKey("Comment", id)));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the comments saved under {@code ids}, in the same order, with null for
+   * ids that don't exist. All of them are fetched with one batch get.
+   */
+  public List<Comment> getComments(List<Long> ids) {
+    List<Key> keys = ids.stream()
+        .map(id -> KeyFactory.createKey("Comment", id))
+        .collect(Collectors.toList());
+    Map<Key, Entity> found = datastore.get(keys);
+    return keys.stream()
+        .map(key -> found.containsKey(key) ? toComment(found.get(key)) : null)
+        .collect(Collectors.toList());
+  }
+
+  /** 
+   * Writes comments that were acknowledged in write-behind mode but handed to
+   * {@link CommentWriteServlet} because the flusher could not write them.
+   */
+  void writeComments(List<Entity> batch) {
+    datastore.put(batch);
+    // These may commit long after newer comments, too late for the search index to
+    // catch up incrementally; counting them as a clear makes it rebuild.
+    cache.recordClear();
+    afterFlush(batch);
+  }
+
+  private void afterFlush(List<Entity> batch) {
+    latestView.addAll(batch.stream().map(CommentService::toComment).collect(Collectors.toList()));
+    cache.invalidate();
+  }
+
+  /**
+   * Returns the newest {@code count} comments, at most {@link LatestCommentsView#SIZE},
+   * as UTF-8 JSON straight from the latest-comments view. {@code generation} is the
+   * value the caller got from {@link #getGeneration()} before calling.
+   */
+  public byte[] getLatestCommentsJson(int count, long generation) {
+    return latestView.getJson(count, generation);
+  }
+
+  /** 
+   * Returns up to {@code limit} comments whose title or text match {@code query},
+   * best match first.
+   */
+  public List<Comment> searchComments(String query, int limit) {
+    return searchIndex.search(query, clampPageSize(limit));
+  }
+
+  /** Loads the search index now rather than on the first search. */
+  public void loadSearchIndex() {
+    searchIndex.refresh();
+  }
+
+  /** Tops up the upload URL pool now, for instances that can't refill it in the background. */
+  public void fillUploadUrlPool() {
+    uploadUrlPool.refill();
+  }
+
+  /**
+   * Tops up the upload URL pool if {@link #createUploadUrl()} took from it and the
+   * instance can't refill it in the background. Call once the response is flushed.
+   */
+  public void refillUploadUrlPoolIfRequested() {
+    uploadUrlPool.refillIfRequested();
+  }
+
+  /** Writes out any queued comments. Called when the app is shutting down. */
+  public void shutdown() {
+    if (writeBehind != null) {
+      writeBehind.shutdown(SHUTDOWN_FLUSH_TIMEOUT_MILLIS);
+    }
+  }
+
+  /** 
+   * Removes Comments and upload sessions from datastore. The uploaded images are
+   * left to {@link BlobReaper}, which finds them through their blob metadata.
+   */
   public void deleteAllComments() {
-    removeEntities("Comment");
-    removeEntities("__BlobInfo__");
-    removeEntities("__BlobUploadSession__");
-  } 
+    BulkDeleteJob job = new BulkDeleteJob();
+    try {
+      for (String kind : DELETED_KINDS) {
+        bulkDeleter.deleteKind(kind, job);
+      }
+    } finally {
+      forgetDeletedComments();
+    }
+    // Every image is an orphan now; start reclaiming them instead of waiting for cron.
+    BlobReaperServlet.enqueue();
+  }
+
+  /** 
+   * Starts {@link #deleteAllComments()} as a chain of tasks, see
+   * {@link CommentDeleteServlet}, and returns right away. Progress can be
+   * followed with {@link #getDeleteJob(String)}.
+   */
+  public BulkDeleteJob startDeleteAllComments() {
+    BulkDeleteJob job = new BulkDeleteJob();
+    datastore.put(job.toEntity());
+    CommentDeleteServlet.enqueue(job);
+    return job;
+  }
+
+  /** Returns a delete job by id, or null if it is unknown. */
+  public BulkDeleteJob getDeleteJob(String id) {
+    try {
+      return BulkDeleteJob.fromEntity(datastore.get(BulkDeleteJob.keyOf(id)));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /** 
+   * Runs the next step of a background delete: a few batches of the job's current
+   * kind in {@link #DELETED_KINDS}, from its cursor. Returns the job as stored
+   * afterwards, with its kind and cursor moved on.
+   */
+  BulkDeleteJob runDeleteStep(BulkDeleteJob job) {
+    AtomicInteger deleted = new AtomicInteger();
+    String nextCursor = bulkDeleter.deleteBatches(
+        DELETED_KINDS.get(job.getKindIndex()), job.getCursor(), deleted::addAndGet);
+    return recordDeleteStep(job.getId(), job.getCompletedSteps(), deleted.get(), nextCursor);
+  }
+
+  // Adds a step to the stored job unless a retry of the same task already did.
+  // Entities deleted by an attempt that failed before this point aren't counted.
+  private BulkDeleteJob recordDeleteStep(String id, long step, int deleted, String nextCursor) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      BulkDeleteJob stored = BulkDeleteJob.fromEntity(datastore.get(txn, BulkDeleteJob.keyOf(id)));
+      if (stored.getCompletedSteps() == step) {
+        stored.completeStep(deleted, nextCursor);
+        datastore.put(txn, stored.toEntity());
+      }
+      txn.commit();
+      return stored;
+    } catch (EntityNotFoundException e) {
+      throw new IllegalStateException("Delete job " + id + " disappeared", e);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
 
- // Removes entities from datastore based off a query string. 
-  private void removeEntities(String query) {
-    datastore.prepare(new Query(query))
-             .asList(FetchOptions.Builder.withLimit(Integer.MAX_VALUE))
-             .stream()
-             .forEach(entity -> datastore.delete(entity.getKey()));                                          
+  /** Marks a background delete done once its last step has run. */
+  void finishDeleteJob(BulkDeleteJob job) {
+    job.finish();
+    datastore.put(job.toEntity());
+    forgetDeletedComments();
+    BlobReaperServlet.enqueue();
+  }
+
+  /** Marks a background delete failed after its current step kept failing. */
+  void failDeleteJob(BulkDeleteJob job, Throwable cause) {
+    job.fail(cause);
+    datastore.put(job.toEntity());
+    // Earlier steps may have deleted comments already.
+    forgetDeletedComments();
+  }
+
+  // Cached pages and the latest-comments view may still list deleted comments.
+  private void forgetDeletedComments() {
+    latestView.markStale();
+    cache.recordClear();
+    cache.invalidate();
+  }
+
+  /**
+   * Moves up to one archive segment's worth of the oldest comments posted before
+   * {@code cutoffMillis} out of the live Comment kind, and returns how many moved.
+   * Listings keep showing them, read from the archive once paging gets that far.
+   */
+  public int archiveOldComments(long cutoffMillis) {
+    int archived = archive.archiveBatch(cutoffMillis);
+    if (archived > 0) {
+      latestView.markStale();
+      // Archived comments leave the live kind, so the search index must start over too.
+      cache.recordClear();
+      cache.invalidate();
+    }
+    return archived;
+  }
+
+  /** Returns a fresh Blobstore upload URL that forwards to /data. */
+  public String createUploadUrl() {
+    return uploadUrlPool.take();
   }
 
   /**
   * This method was taken copied and pasted from the walkthrough on blobstore at:
   * github.com/googleinterns/step/blob/master/walkthroughs/week-4-libraries/
   * 
-  * Returns a URL that points to the uploaded file, or null if the user didn't upload a file.
+  * Returns the key of the uploaded file, or null if the user didn't upload a file.
   */
-  public String getUploadedFileUrl(HttpServletRequest request, String formInputElementName) {
+  public BlobKey getUploadedBlobKey(HttpServletRequest request, String formInputElementName) {
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
-    List<BlobKey> blobKeys = blobs.get("image");
+    List<BlobKey> blobKeys = blobs.get(formInputElementName);
 
     // User submitted form without selecting a file, so we can't get a URL. (dev server)
     if (blobKeys == null || blobKeys.isEmpty()) {
@@ -122,7 +608,29 @@ import javax.servlet.http.HttpServletRequest;
       blobstoreService.delete(blobKey);
       return null;
     }
+    return blobKey;
+  }
+
+  /**
+   * Returns the image to attach to a comment for the freshly uploaded {@code blobKey}.
+   * If the same bytes were uploaded before, that blob and its URLs are reused
+   * and the new copy is deleted.
+   */
+  public UploadedImage storeUploadedImage(BlobKey blobKey) {
+    return imageDeduplicator.deduplicate(blobKey);
+  }
+
+  /**
+   * Makes the compact copy and thumbnail of a new upload. Formats ImageIO can't read
+   * are served as uploaded, through the Images API.
+   */
+  private UploadedImage prepareImage(BlobKey blobKey) {
+    UploadedImage processed = imageStore.process(blobKey);
+    return processed != null ? processed : new UploadedImage(blobKey, getServingUrl(blobKey), null);
+  }
 
+  /** Returns a URL that points to the uploaded file. */
+  public String getServingUrl(BlobKey blobKey) {
     // We could check the validity of the file here, e.g. to make sure it's an image file
     // https://stackoverflow.com/q/10779564/873165
 
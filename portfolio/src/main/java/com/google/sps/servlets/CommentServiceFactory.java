@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+/** 
+ * Hands out the one {@link CommentService} shared by every servlet, so they
+ * all see the same cache and counters.
+ */
+public final class CommentServiceFactory {
+
+  // Set to "local" in appengine-web.xml to run without Memcache.
+  private static final String SHARED_CACHE_PROPERTY = "comments.sharedCache";
+  // Set to "true" to acknowledge comment saves before they are written.
+  private static final String WRITE_BEHIND_PROPERTY = "comments.writeBehind";
+
+  private static final CommentService commentService = new CommentService(
+      createSharedCache(), Boolean.getBoolean(WRITE_BEHIND_PROPERTY));
+
+  private CommentServiceFactory() {}
+
+  public static CommentService getCommentService() {
+    return commentService;
+  }
+
+  private static SharedCache createSharedCache() {
+    if ("local".equals(System.getProperty(SHARED_CACHE_PROPERTY))) {
+      return new InMemorySharedCache();
+    }
+    return new MemcacheSharedCache("comments");
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Backfills {@code postedEpochMillis} on Comment entities that were written when the
+ * posting time was only stored as a display string. An admin starts the migration with a 
+ * GET; each task then converts one batch and enqueues the next with a cursor, so the 
+ * backlog is worked off in the background one small batch at a time.
+ */
+@WebServlet(CommentTimestampMigrationServlet.PATH)
+public final class CommentTimestampMigrationServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/migrate-comment-times";
+
+  private static final Logger logger =
+      Logger.getLogger(CommentTimestampMigrationServlet.class.getName());
+
+  private static final int BATCH_SIZE = 200;
+
+  // The old display format, as written by each JDK the app has run on.
+  private static final List<DateTimeFormatter> LEGACY_FORMATTERS = Arrays.asList(
+      DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM, FormatStyle.SHORT),
+      DateTimeFormatter.ofPattern("MMM d, yyyy h:mm a", Locale.US),
+      DateTimeFormatter.ofPattern("MMM d, yyyy, h:mm a", Locale.US));
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    enqueueBatch(null);
+
+    response.setContentType("text/html");
+    response.getWriter().println("Comment timestamp migration started.");
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursorParam = request.getParameter("cursor");
+    if (cursorParam != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursorParam));
+    }
+
+    QueryResultList<Entity> batch =
+        datastore.prepare(new Query("Comment")).asQueryResultList(fetchOptions);
+
+    List<Entity> migrated = new ArrayList<>();
+    for (Entity entity : batch) {
+      if (entity.hasProperty(CommentService.POSTED_EPOCH_MILLIS)) {
+        continue;
+      }
+      Long epochMillis = parseLegacyTime((String) entity.getProperty("postedTime"));
+      if (epochMillis == null) {
+        logger.warning("Could not migrate posting time of " + entity.getKey());
+        continue;
+      }
+      entity.setProperty(CommentService.POSTED_EPOCH_MILLIS, epochMillis);
+      migrated.add(entity);
+    }
+    datastore.put(migrated);
+
+    if (batch.size() == BATCH_SIZE) {
+      enqueueBatch(batch.getCursor().toWebSafeString());
+    } else {
+      logger.info("Comment timestamp migration finished.");
+    }
+  }
+
+  private static void enqueueBatch(String webSafeCursor) {
+    TaskOptions task = TaskOptions.Builder.withUrl(PATH);
+    if (webSafeCursor != null) {
+      task.param("cursor", webSafeCursor);
+    }
+    QueueFactory.getDefaultQueue().add(task);
+  }
+
+  /** Parses a string like "Jun 11, 2020 11:18 AM UTC", or returns null if it can't. */
+  static Long parseLegacyTime(String postedTime) {
+    if (postedTime == null) {
+      return null;
+    }
+    String localTime = postedTime.replace(" UTC", "").trim();
+    for (DateTimeFormatter formatter : LEGACY_FORMATTERS) {
+      try {
+        return LocalDateTime.parse(localTime, formatter).toInstant(ZoneOffset.UTC).toEpochMilli();
+      } catch (DateTimeParseException e) {
+        // Try the next format.
+      }
+    }
+    return null;
+  }
+}
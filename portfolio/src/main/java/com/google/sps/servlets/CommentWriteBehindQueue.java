@@ -0,0 +1,183 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for new comments. Saves are acknowledged once they are in a
+ * bounded queue; a background flusher writes them with one
+ * {@link DatastoreService#put(Iterable)} per batch, cutting a batch when it reaches
+ * {@link #MAX_BATCH_SIZE} entities or has waited {@link #MAX_BATCH_DELAY_MILLIS}.
+ *
+ * <p>When the queue is full, {@link #offer(Entity)} gives up after a short wait and
+ * the caller writes synchronously instead, so a burst slows writers down rather
+ * than dropping comments. A batch whose put keeps failing is retried with backoff
+ * and handed to {@link CommentWriteServlet}, which the task queue retries until
+ * it is written; acknowledged comments are never dropped.
+ *
+ * <p>The flusher is a background thread, which App Engine only allows on basic or
+ * manual scaling. This app runs with automatic scaling, where the constructor
+ * throws and {@link CommentService} writes comments directly, so the mode
+ * ({@code comments.writeBehind} in appengine-web.xml) is off by default.
+ */
+final class CommentWriteBehindQueue {
+
+  private static final Logger logger = Logger.getLogger(CommentWriteBehindQueue.class.getName());
+
+  static final int CAPACITY = 1000;
+  static final int MAX_BATCH_SIZE = 100;
+  static final long MAX_BATCH_DELAY_MILLIS = 200;
+  static final long OFFER_TIMEOUT_MILLIS = 50;
+  // Puts to try before handing a batch to the task queue.
+  private static final int PUT_ATTEMPTS = 3;
+  private static final long FIRST_RETRY_DELAY_MILLIS = 100;
+  private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final BlockingQueue<Entity> queue = new ArrayBlockingQueue<>(CAPACITY);
+  private final Consumer<List<Entity>> afterFlush;
+  private final Thread flusher;
+  private volatile boolean running = true;
+
+  /** @param afterFlush gets every batch once it is written, e.g. to invalidate caches. */
+  CommentWriteBehindQueue(Consumer<List<Entity>> afterFlush) {
+    this.afterFlush = afterFlush;
+    this.flusher = BackgroundThreads.newFactory("comment-flusher").newThread(this::flushLoop);
+    flusher.start();
+  }
+
+  /** 
+   * Queues {@code entity} for writing. Returns false if the queue is shut down or
+   * stayed full for {@link #OFFER_TIMEOUT_MILLIS}; the caller must then write it itself.
+   */
+  boolean offer(Entity entity) {
+    if (!running) {
+      return false;
+    }
+    try {
+      return queue.offer(entity, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  int size() {
+    return queue.size();
+  }
+
+  /** 
+   * Stops the flusher, waiting at most {@code timeoutMillis} for an in-progress batch,
+   * and hands whatever is still queued to the task queue rather than writing it on
+   * the calling thread.
+   */
+  void shutdown(long timeoutMillis) {
+    running = false;
+    flusher.interrupt();
+    try {
+      flusher.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<Entity> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    if (!remaining.isEmpty() && !handOff(remaining)) {
+      logger.severe("Lost " + remaining.size() + " queued comments at shutdown");
+    }
+  }
+
+  private void flushLoop() {
+    List<Entity> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (running) {
+      try {
+        Entity first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS);
+        while (batch.size() < MAX_BATCH_SIZE) {
+          Entity next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        // Shutting down; whatever was already taken is written below.
+        running = false;
+      }
+      if (!batch.isEmpty()) {
+        write(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  /** 
+   * Puts {@code batch}, backing off between attempts. After {@link #PUT_ATTEMPTS} the
+   * batch goes to the task queue; until that works too the flusher keeps retrying,
+   * so a long outage fills the queue and new saves fall back to synchronous writes.
+   */
+  private void write(List<Entity> batch) {
+    long delayMillis = FIRST_RETRY_DELAY_MILLIS;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        datastore.put(batch);
+        afterFlush.accept(batch);
+        return;
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Comment batch write failed, attempt " + attempt, e);
+      }
+      if (attempt >= PUT_ATTEMPTS && handOff(batch)) {
+        return;
+      }
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        // Shutting down; the task queue is the last place the batch can go.
+        running = false;
+        if (!handOff(batch)) {
+          logger.severe("Lost " + batch.size() + " comments at shutdown");
+        }
+        return;
+      }
+      delayMillis = Math.min(delayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+  }
+
+  private static boolean handOff(List<Entity> batch) {
+    try {
+      CommentWriteServlet.enqueue(batch);
+      logger.warning("Handed " + batch.size() + " comments to the task queue");
+      return true;
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not hand comments to the task queue", e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes comments that {@link CommentWriteBehindQueue} already acknowledged but
+ * could not put itself. Each task carries a few comments as JSON, and the task
+ * queue keeps retrying it until the write goes through.
+ */
+@WebServlet(CommentWriteServlet.PATH)
+public final class CommentWriteServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/write-comments";
+
+  private static final Logger logger = Logger.getLogger(CommentWriteServlet.class.getName());
+
+  // Keeps each payload well under the task size limit.
+  private static final int ENTITIES_PER_TASK = 10;
+  // Queue.add takes at most 100 tasks per call.
+  private static final int TASKS_PER_ADD = 100;
+
+  private static final Gson gson = new Gson();
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!InternalRequests.isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    List<Entity> comments = new ArrayList<>();
+    try (Reader in = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+      QueuedComment[] decoded = gson.fromJson(in, QueuedComment[].class);
+      if (decoded == null) {
+        throw new JsonParseException("Empty payload");
+      }
+      for (QueuedComment queued : decoded) {
+        if (queued == null || queued.comment == null) {
+          throw new JsonParseException("Missing comment");
+        }
+        comments.add(CommentService.toEntity(queued.comment,
+            queued.blobKey == null ? null : new BlobKey(queued.blobKey)));
+      }
+    } catch (JsonIOException e) {
+      throw new IOException("Could not read comment write task", e);
+    } catch (JsonParseException e) {
+      // Retrying can't fix the payload; let the queue drop the task.
+      logger.log(Level.SEVERE, "Unreadable comment write task", e);
+      return;
+    }
+    commentService.writeComments(comments);
+  }
+
+  /** Enqueues tasks that write {@code comments}; the caller may forget them afterwards. */
+  static void enqueue(List<Entity> comments) {
+    List<TaskOptions> tasks = new ArrayList<>();
+    for (int start = 0; start < comments.size(); start += ENTITIES_PER_TASK) {
+      tasks.add(TaskOptions.Builder.withUrl(PATH).payload(
+          encode(comments.subList(start, Math.min(start + ENTITIES_PER_TASK, comments.size()))),
+          "application/json"));
+    }
+    for (int start = 0; start < tasks.size(); start += TASKS_PER_ADD) {
+      QueueFactory.getDefaultQueue().add(
+          tasks.subList(start, Math.min(start + TASKS_PER_ADD, tasks.size())));
+    }
+  }
+
+  private static byte[] encode(List<Entity> comments) {
+    List<QueuedComment> queued = new ArrayList<>(comments.size());
+    for (Entity entity : comments) {
+      BlobKey blobKey = (BlobKey) entity.getProperty(CommentService.IMAGE_BLOB_KEY);
+      queued.add(new QueuedComment(CommentService.toComment(entity),
+                                   blobKey == null ? null : blobKey.getKeyString()));
+    }
+    return gson.toJson(queued).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** One comment in a task payload, with the blob its image is served from, if any. */
+  private static final class QueuedComment {
+    private final Comment comment;
+    private final String blobKey;
+
+    QueuedComment(Comment comment, String blobKey) {
+      this.comment = comment;
+      this.blobKey = blobKey;
+    }
+  }
+}
@@ -14,13 +14,11 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
 import java.io.IOException;
-import java.time.format.DateTimeFormatter;
-import java.time.format.FormatStyle;
-import java.time.ZonedDateTime;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -34,37 +32,112 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/data")
 public final class DataServlet extends HttpServlet {
 
-  private final CommentService commentService = new CommentService();
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Read the generation before querying: if a write races with this request the
+    // body is newer than the tag, which only costs the client one extra refetch.
+    long generation = commentService.getGeneration();
+    String etag = "\"" + generation + "\"";
+    long lastModified = commentService.getLastModifiedMillis();
+    if (CommentService.isSettled(lastModified)) {
+      response.setHeader("ETag", etag);
+      response.setDateHeader("Last-Modified", lastModified);
+      // Let browsers keep the response but revalidate it on every use.
+      response.setHeader("Cache-Control", "no-cache");
+      if (isNotModified(request, etag, lastModified)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    } else {
+      // Right after a write the query may still miss it; a tag would make clients
+      // revalidate that answer into a 304 until the next write.
+      response.setHeader("Cache-Control", "no-store");
+    }
+
+    Gson gson = new Gson();
+    response.setContentType("application/json;");
+
+    String cursorParam = request.getParameter("cursor");
+    String pageSizeParam = request.getParameter("pageSize");
+
+    // Time-window mode: everything posted since the given epoch millis, newest first.
+    String sinceParam = request.getParameter("since");
+    if (sinceParam != null) {
+      long since;
+      try {
+        since = Long.parseLong(sinceParam);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid since.");
+        return;
+      }
+      int limit = parseIntParameter(pageSizeParam, CommentService.MAX_PAGE_SIZE);
+      writeJson(response, commentService.getCommentsSinceJson(since, limit));
+      return;
+    }
+
+    // Author mode: one author's comments, paged the same way as below.
+    String emailParam = request.getParameter("email");
+    if (emailParam != null) {
+      int pageSize = parseIntParameter(pageSizeParam, CommentService.DEFAULT_PAGE_SIZE);
+      byte[] json;
+      try {
+        json = commentService.getCommentsByAuthorJson(emailParam, cursorParam, pageSize);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+      writeJson(response, json);
+      return;
+    }
+
+    // Paged mode: the response carries the cursor for the next page so the client
+    // can keep scrolling without ever asking for everything at once.
+    if (cursorParam != null || pageSizeParam != null) {
+      int pageSize = parseIntParameter(pageSizeParam, CommentService.DEFAULT_PAGE_SIZE);
+      byte[] json;
+      try {
+        json = commentService.getCommentsPageJson(cursorParam, pageSize);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+      writeJson(response, json);
+      return;
+    }
 
     String amountParam = request.getParameter("comment-amount");  
 
     // Default value for commentAmount is 10 in case there's a parsing error. 
-    int commentAmount = amountParam == null ? 10 : Integer.parseInt(amountParam);
+    int commentAmount = parseIntParameter(amountParam, CommentService.DEFAULT_PAGE_SIZE);
+
+    // The newest comments are kept pre-serialized, so the usual request skips the query.
+    if (commentAmount >= 1 && commentAmount <= LatestCommentsView.SIZE) {
+      writeJson(response, commentService.getLatestCommentsJson(commentAmount, generation));
+      return;
+    }
     List<Comment> comments = commentService.getComments(commentAmount); 
-    Gson gson = new Gson();
 
-    response.setContentType("application/json;");
     response.getWriter().println(gson.toJson(comments));
   }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException { 
-    ZonedDateTime dateTime = ZonedDateTime.now();
-    DateTimeFormatter formatter = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM, FormatStyle.SHORT);
-    String postedTime = dateTime.format(formatter) + " UTC";
-
     UserService userService = UserServiceFactory.getUserService();
     String email = userService.getCurrentUser().getEmail();
 
-    Comment comment = new Comment(postedTime, 
+    BlobKey uploadedBlobKey = commentService.getUploadedBlobKey(request, "image");
+    UploadedImage image =
+        uploadedBlobKey == null ? null : commentService.storeUploadedImage(uploadedBlobKey);
+
+    Comment comment = new Comment(System.currentTimeMillis(), 
                                   email, 
                                   request.getParameter("title"), 
                                   request.getParameter("text"), 
-                                  commentService.getUploadedFileUrl(request, "image"));
-    commentService.saveComment(comment);
+                                  image == null ? null : image.getServingUrl(),
+                                  image == null ? null : image.getThumbnailUrl());
+    commentService.saveComment(comment, image == null ? null : image.getBlobKey());
 
     response.sendRedirect("/index.html");
   }
@@ -72,9 +145,66 @@ public final class DataServlet extends HttpServlet {
   @Override
   public void doDelete(HttpServletRequest request, HttpServletResponse response) throws IOException { 
 
+    // With ?async=true the delete runs as a chain of tasks and the job is
+    // returned so the client can poll /delete-job for progress.
+    if (Boolean.parseBoolean(request.getParameter("async"))) {
+      BulkDeleteJob job = commentService.startDeleteAllComments();
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
+      response.setContentType("application/json;");
+      response.getWriter().println(new Gson().toJson(job));
+      return;
+    }
+
     commentService.deleteAllComments();
 
     response.sendRedirect("/index.html");
   }
 
+  @Override
+  public void destroy() {
+    // Don't lose comments still waiting in the write-behind queue.
+    commentService.shutdown();
+  }
+
+  /** Writes JSON that was serialized ahead of time, possibly for another request too. */
+  private static void writeJson(HttpServletResponse response, byte[] json) throws IOException {
+    response.setCharacterEncoding("UTF-8");
+    response.setContentLength(json.length);
+    response.getOutputStream().write(json);
+  }
+
+  /** 
+   * Checks the conditional GET headers. If-None-Match wins when both are present;
+   * If-Modified-Since only has second precision, so compare in whole seconds.
+   */
+  private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        String tag = candidate.trim();
+        if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  private static int parseIntParameter(String value, int defaultValue) {
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
 }
@@ -0,0 +1,45 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** 
+ * Reports the progress of a background comment delete started with
+ * DELETE /data?async=true, e.g. /delete-job?id=...
+ */
+@WebServlet("/delete-job")
+public final class DeleteJobServlet extends HttpServlet {
+
+  private final CommentService commentService = CommentServiceFactory.getCommentService();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String id = request.getParameter("id");
+    BulkDeleteJob job = id == null ? null : commentService.getDeleteJob(id);
+    if (job == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown delete job.");
+      return;
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(job));
+  }
+}
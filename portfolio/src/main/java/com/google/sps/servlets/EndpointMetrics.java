@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Request counters for one endpoint, split by HTTP method. Everything is preallocated. */
+final class EndpointMetrics {
+
+  static final String[] METHODS = {"GET", "POST", "DELETE", "PUT", "HEAD", "OTHER"};
+
+  final LatencyHistogram[] latencies = new LatencyHistogram[METHODS.length];
+  final AtomicLongArray responseBytes = new AtomicLongArray(METHODS.length);
+  final AtomicLongArray clientErrors = new AtomicLongArray(METHODS.length);
+  final AtomicLongArray serverErrors = new AtomicLongArray(METHODS.length);
+  final AtomicLong inFlight = new AtomicLong();
+
+  EndpointMetrics() {
+    for (int i = 0; i < METHODS.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  void record(int method, long micros, int status, long bytes) {
+    latencies[method].recordMicros(micros);
+    responseBytes.addAndGet(method, bytes);
+    if (status >= 500) {
+      serverErrors.incrementAndGet(method);
+    } else if (status >= 400) {
+      clientErrors.incrementAndGet(method);
+    }
+  }
+
+  static int methodIndex(String method) {
+    switch (method) {
+      case "GET": return 0;
+      case "POST": return 1;
+      case "DELETE": return 2;
+      case "PUT": return 3;
+      case "HEAD": return 4;
+      default: return 5;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collapses repeated uploads of the same image onto one blob. Each upload is
+ * fingerprinted with SHA-256 as it streams out of Blobstore, and an ImageHash
+ * entity keyed by the fingerprint remembers the first blob and its serving URL.
+ * Later copies reuse both and are deleted straight away.
+ */
+final class ImageDeduplicator {
+
+  static final String HASH_KIND = "ImageHash";
+  static final String BLOB_KEY = "blobKey";
+  static final String LAST_USED_MILLIS = "lastUsedMillis";
+
+  private static final Logger logger = Logger.getLogger(ImageDeduplicator.class.getName());
+
+  private static final String SERVING_URL = "servingUrl";
+  private static final String THUMBNAIL_URL = "thumbnailUrl";
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+  private static final int TOUCH_ATTEMPTS = 3;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+  private final Function<BlobKey, UploadedImage> preparer;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** {@code preparer} is only asked to make serving URLs for images that haven't been seen before. */
+  ImageDeduplicator(Function<BlobKey, UploadedImage> preparer) {
+    this.preparer = preparer;
+  }
+
+  /**
+   * Returns the blob and serving URL to use for the freshly uploaded {@code blobKey}:
+   * an earlier copy of the same bytes if there is one, otherwise the upload itself.
+   */
+  UploadedImage deduplicate(BlobKey blobKey) {
+    String hash;
+    try {
+      hash = sha256(blobKey);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not fingerprint " + blobKey, e);
+      misses.incrementAndGet();
+      return preparer.apply(blobKey);
+    }
+    Key hashKey = KeyFactory.createKey(HASH_KIND, hash);
+
+    UploadedImage existing = touch(hashKey);
+    boolean prepared = existing == null;
+    if (prepared) {
+      existing = claim(hashKey, preparer.apply(blobKey));
+    }
+    if (existing.getBlobKey().equals(blobKey)) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+      if (prepared) {
+        // A concurrent upload of the same bytes won the claim; nothing will serve
+        // the variants made for this copy.
+        datastore.delete(CommentImageStore.variantKeys(blobKey));
+      }
+      blobstoreService.delete(blobKey);
+    }
+    return existing;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Marks the image behind {@code hashKey} as just used, so {@link BlobReaper} leaves
+   * it alone until a comment points at it, and returns it; or null if there is none.
+   * The read and the write share a transaction: if the reaper deletes the entry in
+   * between, the write must not bring it back pointing at a deleted blob.
+   */
+  private UploadedImage touch(Key hashKey) {
+    for (int attempt = 1; attempt <= TOUCH_ATTEMPTS; attempt++) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        Entity entity = datastore.get(txn, hashKey);
+        entity.setProperty(LAST_USED_MILLIS, System.currentTimeMillis());
+        datastore.put(txn, entity);
+        txn.commit();
+        return toUploadedImage(entity);
+      } catch (EntityNotFoundException e) {
+        return null;
+      } catch (ConcurrentModificationException e) {
+        // Touched or reaped at the same time; look again.
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    // Still contended; treat it as unknown and let claim() settle it transactionally.
+    return null;
+  }
+
+  /**
+   * Records {@code image} under {@code hashKey} unless a concurrent upload of the
+   * same bytes got there first, and returns whichever image won.
+   */
+  private UploadedImage claim(Key hashKey, UploadedImage image) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      try {
+        Entity winner = datastore.get(txn, hashKey);
+        txn.rollback();
+        return toUploadedImage(winner);
+      } catch (EntityNotFoundException e) {
+        Entity entity = new Entity(hashKey);
+        entity.setProperty(BLOB_KEY, image.getBlobKey());
+        entity.setUnindexedProperty(SERVING_URL, image.getServingUrl());
+        entity.setUnindexedProperty(THUMBNAIL_URL, image.getThumbnailUrl());
+        entity.setProperty(LAST_USED_MILLIS, System.currentTimeMillis());
+        datastore.put(txn, entity);
+        txn.commit();
+        return image;
+      }
+    } catch (ConcurrentModificationException e) {
+      // The other upload committed first; its entity is there now.
+      UploadedImage winner = touch(hashKey);
+      return winner != null ? winner : image;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  private String sha256(BlobKey blobKey) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+    byte[] buffer = new byte[READ_BUFFER_BYTES];
+    try (InputStream in = new BlobstoreInputStream(blobKey)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static UploadedImage toUploadedImage(Entity entity) {
+    return new UploadedImage((BlobKey) entity.getProperty(BLOB_KEY),
+                             (String) entity.getProperty(SERVING_URL),
+                             (String) entity.getProperty(THUMBNAIL_URL));
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+/** 
+ * Process-local {@link SharedCache}, used when Memcache isn't available
+ * (local runs and tests). It is bounded like Memcache so it can't grow forever.
+ */
+final class InMemorySharedCache implements SharedCache {
+
+  private static final int CAPACITY = 1024;
+
+  private final LruCache<String, Object> entries = new LruCache<>(CAPACITY);
+
+  @Override
+  public Object get(String key) {
+    return entries.get(key);
+  }
+
+  @Override
+  public void put(String key, Object value) {
+    entries.put(key, value);
+  }
+
+  @Override
+  public synchronized long increment(String key, long delta, long initialValue) {
+    Object current = entries.get(key);
+    long value = (current instanceof Long ? (Long) current : initialValue) + delta;
+    entries.put(key, value);
+    return value;
+  }
+}
@@ -0,0 +1,38 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import javax.servlet.http.HttpServletRequest;
+
+/** 
+ * Decides whether a request to one of the /tasks endpoints may run. 
+ * App Engine strips the queue and cron headers from outside traffic,
+ * so their presence means the request came from App Engine itself.
+ */
+final class InternalRequests {
+
+  private InternalRequests() {}
+
+  static boolean isAuthorized(HttpServletRequest request) {
+    if (request.getHeader("X-AppEngine-QueueName") != null ||
+        request.getHeader("X-Appengine-Cron") != null) {
+      return true;
+    }
+    UserService userService = UserServiceFactory.getUserService();
+    return userService.isUserLoggedIn() && userService.isUserAdmin();
+  }
+}
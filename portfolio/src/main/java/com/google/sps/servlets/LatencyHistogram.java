@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets over microseconds:
+ * every power of two is split into {@link #SUB_BUCKETS} equal buckets, so a bucket
+ * is at most 12.5% wider than its lower bound from 1µs up to about nine hours.
+ * Recording is a couple of atomic adds and never allocates.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Largest tracked value is 2^35µs; anything longer lands in the last bucket.
+  private static final int MAX_EXPONENT = 35;
+  static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong sumMicros = new AtomicLong();
+
+  void recordMicros(long micros) {
+    counts.incrementAndGet(bucketIndex(Math.max(0, micros)));
+    sumMicros.addAndGet(micros);
+  }
+
+  long getCount(int bucket) {
+    return counts.get(bucket);
+  }
+
+  long getSumMicros() {
+    return sumMicros.get();
+  }
+
+  static int bucketIndex(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+    return Math.min((shift + 1) * SUB_BUCKETS + subBucket, BUCKET_COUNT - 1);
+  }
+
+  /** Returns the exclusive upper bound of {@code bucket} in microseconds. */
+  static long bucketUpperBoundMicros(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket + 1;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    int subBucket = bucket % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket + 1) << shift;
+  }
+}
@@ -0,0 +1,228 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The newest {@link #SIZE} comments as one pre-serialized JSON document, so the
+ * default /data request is a memory read (or one get-by-key) instead of a query.
+ *
+ * <p>The document lives in a single LatestComments entity. Writers fold new comments
+ * into it in a transaction after the comments themselves are written, and before the
+ * comment cache generation moves on; readers keep a copy per instance, tagged with
+ * the generation it was read at, and only go back to Datastore when the generation
+ * changes. So the view is never older than the generation a reader sees.
+ *
+ * <p>Anything other than an insert (deleting comments, rewriting old ones) marks the
+ * document stale instead, and the next reader rebuilds it with a query. The entity's
+ * version is bumped by every change, and a rebuild is only stored if the version it
+ * started from is still current, so a rebuild can't overwrite a comment written
+ * while its query ran. Nor is one stored, or kept per instance, if it ran so soon
+ * after a write that the query may have missed it.
+ *
+ * <p>Every write goes through one entity group, which Datastore caps at about one
+ * transaction per second; that is far more than this site sees.
+ */
+final class LatestCommentsView {
+
+  static final int SIZE = CommentService.MAX_PAGE_SIZE;
+  static final String KIND = "LatestComments";
+
+  private static final Logger logger = Logger.getLogger(LatestCommentsView.class.getName());
+
+  private static final Key KEY = KeyFactory.createKey(KIND, "latest");
+  private static final String VERSION = "version";
+  private static final String JSON = "json";
+  private static final int UPDATE_ATTEMPTS = 3;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final Gson gson = new Gson();
+  private final Supplier<List<Comment>> rebuildQuery;
+  private final BooleanSupplier settled;
+
+  private volatile Snapshot local;
+
+  /** 
+   * @param rebuildQuery returns the newest {@link #SIZE} comments, newest first.
+   * @param settled tells whether that query is sure to see every write so far.
+   */
+  LatestCommentsView(Supplier<List<Comment>> rebuildQuery, BooleanSupplier settled) {
+    this.rebuildQuery = rebuildQuery;
+    this.settled = settled;
+  }
+
+  /**
+   * Returns the newest {@code count} comments as UTF-8 JSON. {@code generation} is the
+   * comment cache generation the caller read before calling, and {@code count} must be
+   * between 1 and {@link #SIZE}.
+   */
+  byte[] getJson(int count, long generation) {
+    Snapshot snapshot = local;
+    if (snapshot == null || snapshot.generation != generation) {
+      snapshot = load(generation);
+    }
+    return snapshot.json(count);
+  }
+
+  /** Folds freshly written comments into the document. Never throws. */
+  void addAll(List<Comment> added) {
+    for (int attempt = 1; attempt <= UPDATE_ATTEMPTS; attempt++) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        Entity entity = getOrNull(txn);
+        if (entity == null || !entity.hasProperty(JSON)) {
+          // Nothing to fold into; make sure no rebuild already under way gets stored.
+          datastore.put(txn, toEntity(nextVersion(entity), null));
+        } else {
+          List<Comment> comments = new ArrayList<>(parse(entity));
+          comments.addAll(added);
+          comments.sort(Comparator.comparingLong(Comment::getPostedEpochMillis).reversed());
+          List<Comment> newest = comments.subList(0, Math.min(SIZE, comments.size()));
+          datastore.put(txn, toEntity(nextVersion(entity), newest));
+        }
+        txn.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        // Another writer got there first; try again on top of its version.
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Could not update latest comments", e);
+        break;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    markStale();
+  }
+
+  /** Throws the document away so the next reader rebuilds it. Never throws. */
+  void markStale() {
+    for (int attempt = 1; attempt <= UPDATE_ATTEMPTS; attempt++) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        datastore.put(txn, toEntity(nextVersion(getOrNull(txn)), null));
+        txn.commit();
+        return;
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Could not mark latest comments stale, attempt " + attempt, e);
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  private Snapshot load(long generation) {
+    Entity entity = getOrNull(null);
+    if (entity != null && entity.hasProperty(JSON)) {
+      Snapshot snapshot = new Snapshot(generation, parse(entity));
+      local = snapshot;
+      return snapshot;
+    }
+    long startVersion = entity == null ? 0 : (Long) entity.getProperty(VERSION);
+    boolean rebuildSettled = settled.getAsBoolean();
+    Snapshot snapshot = new Snapshot(generation, rebuildQuery.get());
+    if (!rebuildSettled) {
+      // The query may have missed a write; serve it to this request only.
+      return snapshot;
+    }
+    List<Comment> comments = snapshot.comments;
+
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity current = getOrNull(txn);
+      long currentVersion = current == null ? 0 : (Long) current.getProperty(VERSION);
+      if (currentVersion == startVersion) {
+        datastore.put(txn, toEntity(startVersion + 1, comments));
+        txn.commit();
+      }
+    } catch (RuntimeException e) {
+      // Someone else changed it first; this request still gets the query result.
+      logger.log(Level.FINE, "Latest comments rebuild not stored", e);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+    local = snapshot;
+    return snapshot;
+  }
+
+  private Entity getOrNull(Transaction txn) {
+    try {
+      return datastore.get(txn, KEY);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static long nextVersion(Entity entity) {
+    return entity == null ? 1 : (Long) entity.getProperty(VERSION) + 1;
+  }
+
+  private Entity toEntity(long version, List<Comment> comments) {
+    Entity entity = new Entity(KEY);
+    entity.setUnindexedProperty(VERSION, version);
+    if (comments != null) {
+      entity.setUnindexedProperty(JSON, new Blob(gson.toJson(comments).getBytes(StandardCharsets.UTF_8)));
+    }
+    return entity;
+  }
+
+  private List<Comment> parse(Entity entity) {
+    String json = new String(((Blob) entity.getProperty(JSON)).getBytes(), StandardCharsets.UTF_8);
+    return Arrays.asList(gson.fromJson(json, Comment[].class));
+  }
+
+  /** One instance's copy of the document, with each requested size serialized once. */
+  private final class Snapshot {
+    private final long generation;
+    private final List<Comment> comments;
+    private final ConcurrentHashMap<Integer, byte[]> jsonBySize = new ConcurrentHashMap<>();
+
+    Snapshot(long generation, List<Comment> comments) {
+      this.generation = generation;
+      this.comments = comments;
+    }
+
+    byte[] json(int count) {
+      int size = Math.min(count, comments.size());
+      return jsonBySize.computeIfAbsent(size, n ->
+          gson.toJson(comments.subList(0, n)).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.logging.Level;
+
+/** {@link SharedCache} backed by App Engine Memcache. */
+final class MemcacheSharedCache implements SharedCache {
+
+  private final MemcacheService memcache;
+
+  MemcacheSharedCache(String namespace) {
+    memcache = MemcacheServiceFactory.getMemcacheService(namespace);
+    // A Memcache outage should look like a cache miss, not a failed request.
+    memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.WARNING));
+  }
+
+  @Override
+  public Object get(String key) {
+    return memcache.get(key);
+  }
+
+  @Override
+  public void put(String key, Object value) {
+    memcache.put(key, value);
+  }
+
+  @Override
+  public long increment(String key, long delta, long initialValue) {
+    Long value = memcache.increment(key, delta, initialValue);
+    return value == null ? initialValue + delta : value;
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics registry, written out by /metrics in the Prometheus text format.
+ * Holds per-endpoint request metrics recorded by {@link MetricsFilter} plus any
+ * counters and gauges other components register.
+ */
+final class Metrics {
+
+  // Caps how many distinct endpoints are tracked so stray URLs can't grow the registry.
+  private static final int MAX_ENDPOINTS = 64;
+  static final String OTHER_ENDPOINT = "other";
+
+  private static final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+  private static final Map<String, Sampled> sampled = new ConcurrentHashMap<>();
+
+  private Metrics() {}
+
+  /** Returns the metrics for {@code endpoint}, creating them on first use. */
+  static EndpointMetrics forEndpoint(String endpoint) {
+    EndpointMetrics metrics = endpoints.get(endpoint);
+    if (metrics != null) {
+      return metrics;
+    }
+    if (endpoints.size() >= MAX_ENDPOINTS) {
+      endpoint = OTHER_ENDPOINT;
+    }
+    return endpoints.computeIfAbsent(endpoint, unused -> new EndpointMetrics());
+  }
+
+  /** Registers a monotonically increasing value, read on every scrape. */
+  static void registerCounter(String name, String help, LongSupplier value) {
+    sampled.put(name, new Sampled("counter", help, value));
+  }
+
+  /** Registers a value that can go up and down, read on every scrape. */
+  static void registerGauge(String name, String help, LongSupplier value) {
+    sampled.put(name, new Sampled("gauge", help, value));
+  }
+
+  static void writePrometheus(PrintWriter out) {
+    Map<String, EndpointMetrics> sortedEndpoints = new TreeMap<>(endpoints);
+
+    out.println("# HELP http_request_duration_seconds Time spent serving requests.");
+    out.println("# TYPE http_request_duration_seconds histogram");
+    sortedEndpoints.forEach((endpoint, metrics) -> {
+      for (int m = 0; m < EndpointMetrics.METHODS.length; m++) {
+        writeHistogram(out, labels(endpoint, m), metrics.latencies[m]);
+      }
+    });
+
+    out.println("# HELP http_requests_in_flight Requests currently being served.");
+    out.println("# TYPE http_requests_in_flight gauge");
+    sortedEndpoints.forEach((endpoint, metrics) ->
+        out.println("http_requests_in_flight{endpoint=\"" + endpoint + "\"} "
+            + metrics.inFlight.get()));
+
+    out.println("# HELP http_response_bytes_total Response body bytes written.");
+    out.println("# TYPE http_response_bytes_total counter");
+    sortedEndpoints.forEach((endpoint, metrics) -> {
+      for (int m = 0; m < EndpointMetrics.METHODS.length; m++) {
+        long bytes = metrics.responseBytes.get(m);
+        if (bytes != 0) {
+          out.println("http_response_bytes_total{" + labels(endpoint, m) + "} " + bytes);
+        }
+      }
+    });
+
+    out.println("# HELP http_request_errors_total Requests answered with a 4xx or 5xx status.");
+    out.println("# TYPE http_request_errors_total counter");
+    sortedEndpoints.forEach((endpoint, metrics) -> {
+      for (int m = 0; m < EndpointMetrics.METHODS.length; m++) {
+        writeErrors(out, labels(endpoint, m), "4xx", metrics.clientErrors.get(m));
+        writeErrors(out, labels(endpoint, m), "5xx", metrics.serverErrors.get(m));
+      }
+    });
+
+    new TreeMap<>(sampled).forEach((name, metric) -> {
+      out.println("# HELP " + name + " " + metric.help);
+      out.println("# TYPE " + name + " " + metric.type);
+      out.println(name + " " + metric.value.getAsLong());
+    });
+  }
+
+  private static void writeHistogram(PrintWriter out, String labels, LatencyHistogram histogram) {
+    long cumulative = 0;
+    for (int b = 0; b < LatencyHistogram.BUCKET_COUNT; b++) {
+      cumulative += histogram.getCount(b);
+    }
+    // Skip method/endpoint pairs that never saw a request.
+    if (cumulative == 0) {
+      return;
+    }
+    long total = cumulative;
+    cumulative = 0;
+    // The last bucket also holds everything beyond it, so it is only reported as +Inf.
+    for (int b = 0; b < LatencyHistogram.BUCKET_COUNT - 1; b++) {
+      cumulative += histogram.getCount(b);
+      double le = LatencyHistogram.bucketUpperBoundMicros(b) / 1e6;
+      out.println("http_request_duration_seconds_bucket{" + labels + ",le=\"" + le + "\"} "
+          + cumulative);
+    }
+    out.println("http_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} " + total);
+    out.println("http_request_duration_seconds_sum{" + labels + "} "
+        + histogram.getSumMicros() / 1e6);
+    out.println("http_request_duration_seconds_count{" + labels + "} " + total);
+  }
+
+  private static void writeErrors(PrintWriter out, String labels, String statusClass, long count) {
+    if (count != 0) {
+      out.println("http_request_errors_total{" + labels + ",class=\"" + statusClass + "\"} "
+          + count);
+    }
+  }
+
+  private static String labels(String endpoint, int method) {
+    return "endpoint=\"" + endpoint + "\",method=\"" + EndpointMetrics.METHODS[method] + "\"";
+  }
+
+  private static final class Sampled {
+    private final String type;
+    private final String help;
+    private final LongSupplier value;
+
+    Sampled(String type, String help, LongSupplier value) {
+      this.type = type;
+      this.help = help;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Times every request and records its latency, status and response size under
+ * the servlet mapping it matched and its method. Recording only touches
+ * preallocated atomics in {@link EndpointMetrics}; the one per-request object is
+ * the byte-counting response wrapper. Async requests are recorded when they complete.
+ *
+ * <p>The servlet path alone would be the whole URL for extension and default
+ * mappings, giving every static file or stray URL its own endpoint. The mapping
+ * is worked out from the servlet registrations instead, since the App Engine
+ * runtime predates {@code HttpServletRequest.getHttpServletMapping()}.
+ */
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public final class MetricsFilter implements Filter {
+
+  // The default servlet's mapping, which serves whatever no other mapping matches.
+  static final String DEFAULT_ENDPOINT = "/";
+
+  private final Set<String> mappings = new HashSet<>();
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    for (ServletRegistration registration :
+        filterConfig.getServletContext().getServletRegistrations().values()) {
+      mappings.addAll(registration.getMappings());
+    }
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    CountingResponseWrapper countingResponse =
+        new CountingResponseWrapper((HttpServletResponse) response);
+    EndpointMetrics metrics = Metrics.forEndpoint(endpointOf(httpRequest.getServletPath()));
+    int method = EndpointMetrics.methodIndex(httpRequest.getMethod());
+    long start = System.nanoTime();
+
+    metrics.inFlight.incrementAndGet();
+    boolean async = false;
+    try {
+      chain.doFilter(request, countingResponse);
+      async = request.isAsyncStarted();
+    } catch (IOException | ServletException | RuntimeException e) {
+      record(metrics, method, start, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, countingResponse);
+      throw e;
+    } finally {
+      if (!async) {
+        metrics.inFlight.decrementAndGet();
+      }
+    }
+
+    if (async) {
+      request.getAsyncContext().addListener(new AsyncListener() {
+        @Override
+        public void onComplete(AsyncEvent event) {
+          metrics.inFlight.decrementAndGet();
+          record(metrics, method, start, countingResponse.getStatus(), countingResponse);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {}
+
+        @Override
+        public void onError(AsyncEvent event) {}
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+      });
+    } else {
+      countingResponse.finish();
+      record(metrics, method, start, countingResponse.getStatus(), countingResponse);
+    }
+  }
+
+  /** Returns the servlet mapping that matched a request with {@code servletPath}. */
+  private String endpointOf(String servletPath) {
+    if (mappings.contains(servletPath)) {
+      return servletPath;
+    }
+    // Path mappings like "/tasks/*" leave just their prefix as the servlet path.
+    if (mappings.contains(servletPath + "/*")) {
+      return servletPath + "/*";
+    }
+    int dot = servletPath.lastIndexOf('.');
+    if (dot > servletPath.lastIndexOf('/') && mappings.contains("*" + servletPath.substring(dot))) {
+      return "*" + servletPath.substring(dot);
+    }
+    return DEFAULT_ENDPOINT;
+  }
+
+  private static void record(EndpointMetrics metrics, int method, long startNanos, int status,
+                             CountingResponseWrapper response) {
+    long micros = (System.nanoTime() - startNanos) / 1000;
+    metrics.record(method, micros, status, response.getByteCount());
+  }
+
+  @Override
+  public void destroy() {}
+}
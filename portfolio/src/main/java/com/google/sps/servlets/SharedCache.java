@@ -0,0 +1,34 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+/** 
+ * The cache tier shared by every instance of the app. In production this is
+ * Memcache; {@link InMemorySharedCache} stands in for it locally and in tests.
+ * Values may be evicted at any time, so callers must treat a miss as normal.
+ */
+interface SharedCache {
+
+  /** Returns the value stored under {@code key}, or null if there is none. */
+  Object get(String key);
+
+  void put(String key, Object value);
+
+  /** 
+   * Atomically adds {@code delta} to the counter under {@code key} and returns the result.
+   * A missing counter is first set to {@code initialValue}.
+   */
+  long increment(String key, long delta, long initialValue);
+}
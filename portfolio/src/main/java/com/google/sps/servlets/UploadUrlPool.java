@@ -0,0 +1,173 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a few Blobstore upload URLs ready so page loads don't wait on
+ * {@link BlobstoreService#createUploadUrl(String)}. Each URL is handed out once,
+ * oldest first, and dropped if it got close to Blobstore's ten minute expiry or
+ * if comments were deleted since it was created: delete-all removes the upload
+ * sessions behind every URL, on whichever instance pooled it.
+ * A background thread tops the pool back up after every take and once a minute.
+ * Instances without background threads (automatic scaling) are filled from warmup,
+ * and after each take the serving request calls {@link #refillIfRequested()} once
+ * its response is flushed. If the pool is empty the URL is created on the caller's
+ * thread.
+ */
+final class UploadUrlPool {
+
+  private static final Logger logger = Logger.getLogger(UploadUrlPool.class.getName());
+
+  static final int TARGET_SIZE = 8;
+  // Blobstore upload URLs expire after 10 minutes; leave time to fill in the form.
+  static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long REFILL_PERIOD_SECONDS = 60;
+
+  private final String successPath;
+  private final LongSupplier clearCount;
+  private final BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+  private final Deque<PooledUrl> urls = new ConcurrentLinkedDeque<>();
+  // Null if this instance can't run background threads.
+  private final ScheduledExecutorService refiller;
+  private final AtomicBoolean refillScheduled = new AtomicBoolean();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  /** 
+   * @param successPath where Blobstore forwards the upload request, e.g. "/data".
+   * @param clearCount changes whenever comments and upload sessions are deleted;
+   *     see {@link CommentCache#getClearCount()}.
+   */
+  UploadUrlPool(String successPath, LongSupplier clearCount) {
+    this.successPath = successPath;
+    this.clearCount = clearCount;
+    this.refiller = startRefiller();
+  }
+
+  private ScheduledExecutorService startRefiller() {
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(BackgroundThreads.newFactory("upload-url-pool"));
+    try {
+      executor.scheduleWithFixedDelay(this::refill, 0, REFILL_PERIOD_SECONDS, TimeUnit.SECONDS);
+      return executor;
+    } catch (IllegalStateException e) {
+      executor.shutdownNow();
+      logger.info("No background refiller for the upload URL pool; refilled by requests");
+      return null;
+    }
+  }
+
+  /** Returns an unused upload URL, from the pool when one is fresh enough. */
+  String take() {
+    long now = System.currentTimeMillis();
+    long currentClearCount = clearCount.getAsLong();
+    PooledUrl pooled;
+    while ((pooled = urls.pollFirst()) != null) {
+      if (now - pooled.createdMillis < MAX_AGE_MILLIS && pooled.clearCount == currentClearCount) {
+        hits.incrementAndGet();
+        scheduleRefill();
+        return pooled.url;
+      }
+      expired.incrementAndGet();
+    }
+    misses.incrementAndGet();
+    scheduleRefill();
+    return blobstoreService.createUploadUrl(successPath);
+  }
+
+  int size() {
+    return urls.size();
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  long getExpired() {
+    return expired.get();
+  }
+
+  private void scheduleRefill() {
+    // Without a refiller the flag stays set until refillIfRequested() runs.
+    if (refillScheduled.compareAndSet(false, true) && refiller != null) {
+      refiller.execute(this::refill);
+    }
+  }
+
+  /**
+   * Refills the pool on the caller's thread if a take asked for it and there is no
+   * background refiller to do it. Meant to run after the response is flushed.
+   */
+  void refillIfRequested() {
+    if (refiller == null && refillScheduled.get()) {
+      refill();
+    }
+  }
+
+  /** Drops expired URLs and creates new ones until the pool is full again. */
+  void refill() {
+    refillScheduled.set(false);
+    try {
+      // Expired URLs sit at the old end of the deque.
+      long now = System.currentTimeMillis();
+      PooledUrl oldest;
+      while ((oldest = urls.peekFirst()) != null && now - oldest.createdMillis >= MAX_AGE_MILLIS) {
+        if (urls.remove(oldest)) {
+          expired.incrementAndGet();
+        }
+      }
+      long currentClearCount = clearCount.getAsLong();
+      urls.removeIf(pooled -> pooled.clearCount != currentClearCount);
+      while (urls.size() < TARGET_SIZE) {
+        urls.addLast(new PooledUrl(blobstoreService.createUploadUrl(successPath),
+                                   System.currentTimeMillis(), currentClearCount));
+      }
+    } catch (RuntimeException e) {
+      // E.g. no API access from background threads; take() still works without the pool.
+      logger.log(Level.WARNING, "Could not refill the upload URL pool", e);
+    }
+  }
+
+  private static final class PooledUrl {
+    private final String url;
+    private final long createdMillis;
+    private final long clearCount;
+
+    PooledUrl(String url, long createdMillis, long clearCount) {
+      this.url = url;
+      this.createdMillis = createdMillis;
+      this.clearCount = clearCount;
+    }
+  }
+}
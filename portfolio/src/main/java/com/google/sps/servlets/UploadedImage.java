@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+
+/** An image blob that is ready to be attached to a comment, and the URLs it is served from. */
+public final class UploadedImage {
+
+  private final BlobKey blobKey;
+  private final String servingUrl;
+  // Null when no smaller copy could be made; the list then shows the full image.
+  private final String thumbnailUrl;
+
+  public UploadedImage(BlobKey blobKey, String servingUrl, String thumbnailUrl) {
+    this.blobKey = blobKey;
+    this.servingUrl = servingUrl;
+    this.thumbnailUrl = thumbnailUrl;
+  }
+
+  public BlobKey getBlobKey() {
+      return blobKey;
+  }
+
+  public String getServingUrl() {
+      return servingUrl;
+  }
+
+  public String getThumbnailUrl() {
+      return thumbnailUrl;
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * App Engine calls /_ah/warmup on a new instance before sending it user traffic.
+ * This runs the slow first-time paths of a comment request here instead: loading
+ * the service clients, Gson's and ImageIO's first passes, and the first Datastore
+ * query, which also fills the comment cache and the latest-comments view, the
+ * search index and the upload URL pool.
+ * Each phase's duration is exported on /metrics as warmup_&lt;phase&gt;_millis.
+ */
+@WebServlet("/_ah/warmup")
+public final class WarmupServlet extends HttpServlet {
+
+  private static final Logger logger = Logger.getLogger(WarmupServlet.class.getName());
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long start = System.nanoTime();
+
+    CommentService commentService = time("services", () -> {
+      UserServiceFactory.getUserService();
+      BlobstoreServiceFactory.getBlobstoreService();
+      ImagesServiceFactory.getImagesService();
+      return CommentServiceFactory.getCommentService();
+    });
+
+    time("codecs", () -> {
+      Gson gson = new Gson();
+      Comment sample = new Comment(0, "", "", "", "", "");
+      gson.fromJson(gson.toJson(new CommentPage(Collections.singletonList(sample), null)),
+                    CommentPage.class);
+      return ImageIO.getImageReadersByFormatName("jpeg").hasNext();
+    });
+
+    if (commentService != null) {
+      long generation = commentService.getGeneration();
+      time("comment_query", () -> commentService.getCommentsPageJson(
+          null, CommentService.DEFAULT_PAGE_SIZE));
+      time("latest_comments", () -> commentService.getLatestCommentsJson(
+          CommentService.DEFAULT_PAGE_SIZE, generation));
+      time("search_index", () -> {
+        commentService.loadSearchIndex();
+        return null;
+      });
+      time("upload_urls", () -> {
+        commentService.fillUploadUrlPool();
+        return null;
+      });
+    }
+
+    long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Metrics.registerGauge("warmup_total_millis", "Time the warmup request took.",
+                          () -> totalMillis);
+    logger.info("Warmup took " + totalMillis + " ms");
+
+    response.setContentType("text/plain");
+    response.getWriter().println("Warm.");
+  }
+
+  /** 
+   * Runs one warmup phase and exports how long it took. A failing phase is only
+   * logged; the request that needs it will pay for it instead.
+   */
+  private static <T> T time(String phase, Supplier<T> body) {
+    long start = System.nanoTime();
+    T result = null;
+    try {
+      result = body.get();
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Warmup phase " + phase + " failed", e);
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Metrics.registerGauge("warmup_" + phase + "_millis",
+                          "Time the " + phase + " warmup phase took.", () -> millis);
+    return result;
+  }
+}
@@ -14,10 +14,6 @@
 
 window.addEventListener('DOMContentLoaded', () => {
 
-  fetchBlobstoreUrl() 
-
-  showCommentForm();
-
   loadCanvas();
 
   const navBar = document.getElementById('nav-bar');
@@ -42,17 +38,32 @@ window.addEventListener('DOMContentLoaded', () => {
         localStorage.getItem("commentAmount");
   }
 
-  getComments();
+  bootstrapPage();
+
+  pollForNewComments();
   
 });
 
-function fetchBlobstoreUrl() {
-  fetch('/blobstore-upload-url')
-      .then(response => response.text())
-      .then(imageUploadUrl => {
-        const messageForm = document.getElementById('comment-form');
-        messageForm.action = imageUploadUrl;
-      });
+/**
+ * Loads login state, the upload URL and the first page of comments
+ * with a single request to /bootstrap.
+ */
+function bootstrapPage() {
+  localStorage.setItem("commentAmount",
+      document.getElementById("comment-amount").value);
+
+  const commentAmount = localStorage.getItem("commentAmount");
+  loadingComments = true;
+  fetch(`/bootstrap?pageSize=${commentAmount}`)
+      .then(response => response.json())
+      .then(bootstrap => {
+          showLoginState(bootstrap);
+          bootstrap.comments.comments.forEach(displayComment);
+          nextCommentsCursor = bootstrap.comments.nextCursor;
+        })
+      .finally(() => {
+          loadingComments = false;
+        });
 }
 
 // Displays the content title and text in the content container.
@@ -66,27 +77,55 @@ function showContent(element) {
   element.classList.toggle('hidden', false);
 }
 
-// Retrieves data from the /data page and displays it. 
+// Cursor for the next page of comments, or null once every page has been shown.
+let nextCommentsCursor = null;
+let loadingComments = false;
+
+// Retrieves the first page of comments from the /data page and displays it. 
 function getComments() {
   clearComments();
 
   localStorage.setItem("commentAmount",
       document.getElementById("comment-amount").value);
 
-  commentAmount = localStorage.getItem("commentAmount");
-  fetch(`/data?comment-amount=${commentAmount}`)
+  nextCommentsCursor = null;
+  loadCommentPage();
+}
+
+// Fetches the page of comments after nextCommentsCursor and appends it.
+function loadCommentPage() {
+  loadingComments = true;
+  const commentAmount = localStorage.getItem("commentAmount");
+  const cursorParam = nextCommentsCursor ?
+      `&cursor=${encodeURIComponent(nextCommentsCursor)}` : "";
+  fetch(`/data?pageSize=${commentAmount}${cursorParam}`)
       .then(response => response.json())
-      .then(json => {
-          json.forEach(displayComment);
+      .then(page => {
+          page.comments.forEach(displayComment);
+          nextCommentsCursor = page.nextCursor;
+        })
+      // A failed page must not stop scrolling from trying again.
+      .finally(() => {
+          loadingComments = false;
         });
 }
 
+// Loads another page of comments when the user scrolls near the bottom.
+window.addEventListener('scroll', () => {
+  const nearBottom =
+      window.innerHeight + window.scrollY >= document.body.offsetHeight - 200;
+  if (nearBottom && nextCommentsCursor && !loadingComments) {
+    loadCommentPage();
+  }
+});
+
 // Clears the div container holding the comments. 
 function clearComments() {
   commentContainer = document.getElementById("comments");
     while(commentContainer.firstChild) {
       commentContainer.removeChild(commentContainer.firstChild);
   }
+  shownCommentIds.clear();
 }
 
 /** 
@@ -101,14 +140,17 @@ class PageComment extends HTMLElement {
   }
 
   connectedCallback() {
-    const {postedDateTime, email, text, title, imageUrl} = this.comment;
+    const {postedDateTime, email, text, title, imageUrl, thumbnailUrl} = this.comment;
     if (imageUrl) {
+      // The list only loads the thumbnail; the full image opens on click.
       this.innerHTML = `
         <p id="comment">${text} posted on ${postedDateTime} by ${email}</p>
         <span id="popup" class="popup-content">
           <h5>${title}</h5>
           <p>${text}</p>
-          <img src="${imageUrl}">
+          <a href="${imageUrl}" target="_blank">
+            <img src="${thumbnailUrl || imageUrl}" loading="lazy">
+          </a>
         </span>
       `;
     } else {
@@ -135,61 +177,84 @@ customElements.define('my-comment', PageComment);
  * pulled from /data page.
  */
 function displayComment(comment) {
+    rememberComment(comment);
     document.getElementById('comments').appendChild(new PageComment(comment));
 }
 
-// Removes the comments from the page after being cleared from the Datastore. 
-function deleteComments() {
-  fetch("/data", {method: "DELETE"}).then(clearComments);
+// How often the page asks /data for comments posted since the newest one shown.
+const NEW_COMMENTS_POLL_MILLIS = 15000;
+// Comments saved by another instance can commit a little after later ones, so
+// each poll looks this far back and skips comments already on the page.
+const NEW_COMMENTS_OVERLAP_MILLIS = 60000;
+const shownCommentIds = new Set();
+let newestCommentMillis = 0;
+// ETag of the last poll's answer; while nothing changes the server answers 304.
+let newCommentsEtag = null;
+
+// Shows comments posted by anyone, checking /data?since= while the page is visible.
+function pollForNewComments() {
+  setInterval(() => {
+    if (document.hidden) {
+      return;
+    }
+    const since = Math.max(0, newestCommentMillis - NEW_COMMENTS_OVERLAP_MILLIS);
+    const headers = newCommentsEtag ? {'If-None-Match': newCommentsEtag} : {};
+    fetch(`/data?since=${since}`, {headers: headers, cache: 'no-store'})
+        .then(response => {
+          if (response.status !== 200) {
+            return [];
+          }
+          newCommentsEtag = response.headers.get('ETag');
+          return response.json();
+        })
+        .then(comments => {
+          // Oldest first, so the newest ends up on top.
+          comments.reverse()
+              .filter(comment => !shownCommentIds.has(comment.id))
+              .forEach(comment => {
+                  rememberComment(comment);
+                  document.getElementById('comments').prepend(new PageComment(comment));
+                });
+        })
+        // A failed poll is simply retried on the next tick.
+        .catch(() => {});
+  }, NEW_COMMENTS_POLL_MILLIS);
 }
 
-/** 
- * This method checks the login status. If the user is logged in, 
- * then the post comment button is displayed, the login buttons are hidden,
- * and the logout button is displayed.
- */
-function showCommentForm() {
-  fetch("/auth").then(response => response.text())
-                .then(text => {
-                    if (text.includes("logged in")) {
-                        document.getElementById("header-login").classList.add("hidden");
-                        document.getElementById("login").classList.add("hidden");
-                        document.getElementById("comment-form").classList.remove("hidden");
-                        document.getElementById("logout-container").classList.remove("hidden")
-                        showUser();
-                    }
-                });
+function rememberComment(comment) {
+  shownCommentIds.add(comment.id);
+  newestCommentMillis = Math.max(newestCommentMillis, comment.postedEpochMillis);
 }
 
-function hideCommentForm() {
-fetch("/auth").then(response => response.text())
-              .then(text => {
-                  if (text.replace("\n", "").includes("logged in")) {
-                      document.getElementById("header-login").classList.add("hidden");
-                      document.getElementById("login").classList.add("hidden");
-                      document.getElementById("to-comment-page").classList.remove("hidden");
-                      document.getElementById("logout-container").classList.add("hidden");
-                  }
-                });
+// Deletes every comment, then clears them from the page. 
+function deleteComments() {
+  fetch("/data", {method: "DELETE"}).then(() => {
+    nextCommentsCursor = null;
+    clearComments();
+  });
 }
 
-/**
- * Displays logout button and the username of logged in user.
+/** 
+ * If the user is logged in, the post comment form, the logout button and the
+ * user's email are displayed and the login buttons are hidden. Either way the
+ * login/logout links point straight at the URL from /bootstrap.
  */
-function showUser() {
-  let userEmail = "";
-  fetch(`/auth`).then(response => response.text())
-      .then(text => {
-          text = text.replace("\n", " ");
-          /** 
-           * email will always be at index 3 in this array
-           * because of the way /auth is laid out.
-           */
-          userEmail = text.split(" ")[3];
-          document.getElementById("user-display").innerText = `Hello ${userEmail}!`;
-      });
+function showLoginState(bootstrap) {
+  if (!bootstrap.loggedIn) {
+    document.getElementById("header-login").href = bootstrap.authUrl;
+    document.getElementById("login").href = bootstrap.authUrl;
+    return;
+  }
+  document.getElementById("header-login").classList.add("hidden");
+  document.getElementById("login").classList.add("hidden");
+
+  const messageForm = document.getElementById("comment-form");
+  messageForm.action = bootstrap.uploadUrl;
+  messageForm.classList.remove("hidden");
+
+  document.getElementById("logout").href = bootstrap.authUrl;
+  document.getElementById("user-display").innerText = `Hello ${bootstrap.email}!`;
   document.getElementById("logout-container").classList.remove("hidden");
-  
 }
 
 const circles = [
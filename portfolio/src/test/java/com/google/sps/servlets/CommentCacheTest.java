@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class CommentCacheTest {
+
+  private InMemorySharedCache shared;
+  private CommentCache cache;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp() {
+    shared = new InMemorySharedCache();
+    // The last write is long past, so query results may be cached.
+    shared.put(CommentCache.LAST_MODIFIED_KEY, 0L);
+    cache = new CommentCache(shared);
+    loads = new AtomicInteger();
+  }
+
+  private String load() {
+    return "value " + loads.incrementAndGet();
+  }
+
+  @Test
+  public void loadsOnceThenHitsLocally() {
+    Assert.assertEquals("value 1", cache.get("page", this::load));
+    Assert.assertEquals("value 1", cache.get("page", this::load));
+
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(1, cache.getLocalHits());
+    Assert.assertEquals(0, cache.getSharedHits());
+    Assert.assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void otherInstancesHitTheSharedTier() {
+    cache.get("page", this::load);
+
+    // A second instance has an empty local tier but the same shared one.
+    CommentCache other = new CommentCache(shared);
+    Assert.assertEquals("value 1", other.get("page", this::load));
+
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(1, other.getSharedHits());
+    Assert.assertEquals(0, other.getMisses());
+  }
+
+  @Test
+  public void invalidateMovesToNewGeneration() {
+    long generation = cache.getGeneration();
+    cache.get("page", this::load);
+
+    cache.invalidate();
+
+    Assert.assertNotEquals(generation, cache.getGeneration());
+    Assert.assertEquals("value 2", cache.get("page", this::load));
+    Assert.assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void invalidateReachesOtherInstances() {
+    CommentCache other = new CommentCache(shared);
+    other.get("page", this::load);
+
+    cache.invalidate();
+
+    // The other instance's local entry is keyed by the old generation, so it misses.
+    Assert.assertEquals("value 2", other.get("page", this::load));
+    Assert.assertEquals(2, other.getMisses());
+  }
+
+  @Test
+  public void readsRightAfterAWriteAreNotCached() {
+    cache.invalidate();
+    Assert.assertFalse(cache.isSettled());
+
+    Assert.assertEquals("value 1", cache.get("page", this::load));
+    Assert.assertEquals("value 2", cache.get("page", this::load));
+    Assert.assertEquals(2, cache.getMisses());
+    Assert.assertNull(shared.get(cache.getGeneration() + ":page"));
+  }
+
+  @Test
+  public void clearCountChangesOnlyOnClear() {
+    long clearCount = cache.getClearCount();
+    cache.invalidate();
+    Assert.assertEquals(clearCount, cache.getClearCount());
+
+    cache.recordClear();
+    Assert.assertEquals(clearCount + 1, cache.getClearCount());
+  }
+
+  @Test
+  public void sharedCounterStartsAtInitialValue() {
+    Assert.assertEquals(10, shared.increment("counter", 0, 10));
+    Assert.assertEquals(12, shared.increment("counter", 2, 10));
+    Assert.assertNull(shared.get("missing"));
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class LruCacheTest {
+
+  @Test
+  public void evictsLeastRecentlyUsedEntry() {
+    LruCache<String, Integer> cache = new LruCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+
+    // Reading "a" makes "b" the least recently used entry.
+    Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+    cache.put("c", 3);
+
+    Assert.assertEquals(2, cache.size());
+    Assert.assertNull(cache.get("b"));
+    Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+    Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+  }
+
+  @Test
+  public void removeAndClear() {
+    LruCache<String, Integer> cache = new LruCache<>(4);
+    cache.put("a", 1);
+    cache.put("b", 2);
+
+    Assert.assertEquals(Integer.valueOf(1), cache.remove("a"));
+    Assert.assertNull(cache.get("a"));
+
+    cache.clear();
+    Assert.assertEquals(0, cache.size());
+  }
+}
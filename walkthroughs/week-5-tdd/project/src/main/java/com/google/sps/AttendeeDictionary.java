@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives every attendee name a small integer id, handed out densely from 0 in the order
+ * names are first seen, so sets of attendees can be stored as bitsets. The same name
+ * always gets the same id for the life of the process.
+ *
+ * <p>Only event attendees are interned. Names from requests are looked up with
+ * {@link #idOf}, so a stream of requests can't grow the dictionary; a requested
+ * name that no event has is simply never busy.
+ */
+public final class AttendeeDictionary {
+
+  /** What {@link #idOf} returns for a name that is in no event. */
+  public static final int NEVER_BUSY = -1;
+
+  private static final AttendeeDictionary INSTANCE = new AttendeeDictionary();
+
+  private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  private AttendeeDictionary() {}
+
+  /**
+   * Returns the dictionary shared by all events and requests.
+   */
+  public static AttendeeDictionary getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the id of {@code name}, assigning the next free one if it is new.
+   */
+  public int intern(String name) {
+    return ids.computeIfAbsent(name, unused -> nextId.getAndIncrement());
+  }
+
+  /**
+   * Returns the id of {@code name}, or {@link #NEVER_BUSY} if it has none. Never
+   * assigns a new id.
+   */
+  public int idOf(String name) {
+    return ids.getOrDefault(name, NEVER_BUSY);
+  }
+
+  /**
+   * Returns how many names have an id.
+   */
+  public int size() {
+    return nextId.get();
+  }
+}
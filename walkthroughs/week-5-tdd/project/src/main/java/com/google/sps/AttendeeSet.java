@@ -0,0 +1,182 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.ToIntFunction;
+
+/**
+ * An immutable set of attendees stored as a bitset over the ids handed out by
+ * {@link AttendeeDictionary}. Comparing two sets is a word-by-word AND, with no
+ * string hashing and no allocation.
+ */
+public final class AttendeeSet {
+
+  public static final AttendeeSet EMPTY = new AttendeeSet(new long[0]);
+
+  private final long[] words;
+
+  private AttendeeSet(long[] words) {
+    this.words = words;
+  }
+
+  /**
+   * Returns the set of {@code names}, interning any that are new.
+   */
+  public static AttendeeSet of(Collection<String> names) {
+    return of(names, AttendeeDictionary.getInstance()::intern);
+  }
+
+  /**
+   * Returns the set of those {@code names} that already have an id. The others are in
+   * no event, so they are never busy and can be left out. Use this for names from
+   * requests, which must not grow the dictionary.
+   */
+  public static AttendeeSet ofKnown(Collection<String> names) {
+    return of(names, AttendeeDictionary.getInstance()::idOf);
+  }
+
+  private static AttendeeSet of(Collection<String> names, ToIntFunction<String> idOf) {
+    long[] words = new long[0];
+    for (String name : names) {
+      int id = idOf.applyAsInt(name);
+      if (id == AttendeeDictionary.NEVER_BUSY) {
+        continue;
+      }
+      if (id >> 6 >= words.length) {
+        words = Arrays.copyOf(words, (id >> 6) + 1);
+      }
+      words[id >> 6] |= 1L << id;
+    }
+    return new AttendeeSet(words);
+  }
+
+  /**
+   * Returns true if some attendee is in both sets.
+   */
+  public boolean intersects(AttendeeSet other) {
+    int common = Math.min(words.length, other.words.length);
+    for (int i = 0; i < common; i++) {
+      if ((words[i] & other.words[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns how many attendees are in both sets.
+   */
+  public int intersectionSize(AttendeeSet other) {
+    int common = Math.min(words.length, other.words.length);
+    int size = 0;
+    for (int i = 0; i < common; i++) {
+      size += Long.bitCount(words[i] & other.words[i]);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the smallest id of at least {@code fromId} that is in both sets, or -1 if
+   * there is none. Loop from 0, passing the last id plus one, to visit them all.
+   */
+  public int nextInIntersection(AttendeeSet other, int fromId) {
+    int common = Math.min(words.length, other.words.length);
+    int i = fromId >> 6;
+    if (i >= common) {
+      return -1;
+    }
+    long bits = words[i] & other.words[i] & (-1L << fromId);
+    while (bits == 0) {
+      if (++i == common) {
+        return -1;
+      }
+      bits = words[i] & other.words[i];
+    }
+    return (i << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * Returns the smallest id of at least {@code fromId} in this set, or -1 if there is
+   * none.
+   */
+  public int next(int fromId) {
+    int i = fromId >> 6;
+    if (i >= words.length) {
+      return -1;
+    }
+    long bits = words[i] & (-1L << fromId);
+    while (bits == 0) {
+      if (++i == words.length) {
+        return -1;
+      }
+      bits = words[i];
+    }
+    return (i << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * Returns true if the attendee with {@code id} is in this set.
+   */
+  public boolean contains(int id) {
+    return id >> 6 < words.length && (words[id >> 6] & (1L << id)) != 0;
+  }
+
+  /**
+   * Returns how many attendees are in this set.
+   */
+  public int size() {
+    int size = 0;
+    for (long word : words) {
+      size += Long.bitCount(word);
+    }
+    return size;
+  }
+
+  /**
+   * Returns one more than the largest id this set could hold, which bounds every id in it.
+   */
+  public int capacity() {
+    return words.length << 6;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof AttendeeSet)) {
+      return false;
+    }
+    // Trailing zero words don't change the set.
+    long[] otherWords = ((AttendeeSet) other).words;
+    int length = Math.max(words.length, otherWords.length);
+    for (int i = 0; i < length; i++) {
+      long word = i < words.length ? words[i] : 0;
+      long otherWord = i < otherWords.length ? otherWords[i] : 0;
+      if (word != otherWord) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 0;
+    for (int i = 0; i < words.length; i++) {
+      hash += Long.hashCode(words[i]) * (i + 1);
+    }
+    return hash;
+  }
+}
@@ -27,6 +27,8 @@ public final class Event {
   private final String title;
   private final TimeRange when;
   private final Set<String> attendees = new HashSet<>();
+  // The same attendees as interned ids, for cheap overlap checks.
+  private final AttendeeSet attendeeSet;
 
   /**
    * Creates a new event.
@@ -51,6 +53,7 @@ public final class Event {
     this.title = title;
     this.when = when;
     this.attendees.addAll(attendees);
+    this.attendeeSet = AttendeeSet.of(this.attendees);
   }
 
   /**
@@ -76,6 +79,13 @@ public final class Event {
     return Collections.unmodifiableSet(attendees);
   }
 
+  /**
+   * Returns the attendees of this event as a bitset of interned ids.
+   */
+  public AttendeeSet getAttendeeSet() {
+    return attendeeSet;
+  }
+
   @Override
   public int hashCode() {
     // For the hash code, just use the title. Most events "should" have different names and will
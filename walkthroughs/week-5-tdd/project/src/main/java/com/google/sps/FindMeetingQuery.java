@@ -14,28 +14,52 @@
 
 package com.google.sps;
 
-import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.HashSet;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public final class FindMeetingQuery {
 
-  private static Comparator<Event> ORDER_BY_EVENT_START = (Event a, Event b) ->
-    TimeRange.ORDER_BY_START.compare(a.getWhen(), b.getWhen());
+  private static final int DAY_LENGTH = TimeRange.WHOLE_DAY.duration();
 
-  /** 
-   * First Solution: 
-   * Separate {@code events} in two lists based on attendee type.
-   * Call .findOpenTimeRanges() on each list
-   * Return a collection with valid time slots accroding to requesst.
+  /**
+   * Finds the times in the day when the meeting in {@code request} can take place.
+   *
+   * <ul>
+   *   <li>If there is time when every mandatory and optional attendee is free, those
+   *       time slots are returned.</li>
+   *   <li>Otherwise, the time slots taken up by meetings that all mandatory attendees
+   *       and the most optional attendees can make are returned, where each optional
+   *       attendee counts their {@link MeetingRequest#getOptionalAttendeeWeight weight}.
+   *       If no optional attendee can join at all (or there are no mandatory
+   *       attendees), every time slot that works for the mandatory attendees is
+   *       returned.</li>
+   *   <li>If the mandatory attendees have no time slot long enough, nothing is returned.</li>
+   * </ul>
    *
+   * <p>If the request sets a {@link MeetingRequest#getMinimumOptionalAttendees minimum}
+   * of k optional attendees, none of the above applies: the time slots taken up by
+   * meetings that all mandatory attendees and at least k optional attendees can make
+   * are returned, whatever their weights, and nothing if there are none.
+   *
+   * <p>The first two come out of a single sweep over the start and end times of the
+   * relevant events, sorted once, so they take O(E log E) time for E events; finding
+   * the most optional attendees, or at least k of them, takes O((E + A) log E) for A
+   * optional attendees.
    */
   public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
+    int minimumOptional = request.getMinimumOptionalAttendees();
+    if (minimumOptional > 0) {
+      return hasEnoughOptionalAttendees(request)
+          ? optionalAttendeeWindows(events, request, false).findAtLeast(minimumOptional)
+          : new ArrayList<>();
+    }
 
     // If the request has no attendees, the open time slot is the entire day.
     if (request.getAttendees().isEmpty() && 
@@ -43,232 +67,252 @@ public final class FindMeetingQuery {
         return Arrays.asList(TimeRange.WHOLE_DAY);
     }
 
-    // Filter out events with attendees not in {@code request}.
-    List<Event> eventsList = events.stream()
-                           .filter(event -> 
-                                !Collections.disjoint(request.getAttendees(),
-                                                      event.getAttendees()) || 
-                                !Collections.disjoint(request.getOptionalAttendees(),
-                                                      event.getAttendees()))
-                           .sorted(ORDER_BY_EVENT_START)
-                           .collect(Collectors.toList());
-
-    List<TimeRange> eventTimes = eventsList.stream()
-                                           .map(Event::getWhen)
-                                           .collect(Collectors.toList());
+    List<Segment> segments = sweep(events, request);
+    long duration = request.getDuration();
 
+    Collection<TimeRange> everyoneFree = mergeFreeTime(segments, 
+        segment -> !segment.mandatoryBusy && segment.busyOptionalAttendees == 0, duration);
+    if (!everyoneFree.isEmpty()) {
+      return everyoneFree;
+    }
 
-    Collection<TimeRange> allAvailableTimeRanges = 
-        findOpenTimeRanges(eventTimes, request.getDuration());
+    Collection<TimeRange> mandatoryFree =
+        mergeFreeTime(segments, segment -> !segment.mandatoryBusy, duration);
+    if (mandatoryFree.isEmpty() || request.getAttendees().isEmpty()) {
+      return mandatoryFree;
+    }
 
-    List<TimeRange> mandatoryEventTimes = events.stream()
-                           .filter(event -> !Collections.disjoint(request.getAttendees(), event.getAttendees()))
-                           .sorted(ORDER_BY_EVENT_START)
-                           .map(Event::getWhen)
-                           .collect(Collectors.toList());
+    Collection<TimeRange> mostOptional =
+        optionalAttendeeWindows(events, request, true).findBest();
+    return mostOptional.isEmpty() ? mandatoryFree : mostOptional;
+  }
 
-    List<Event> optionalEvents = eventsList.stream()
-                           .filter(event -> 
-                             !Collections.disjoint(request.getOptionalAttendees(), event.getAttendees()))
+  /**
+   * Same as {@link #query(Collection, MeetingRequest)}, but reads availability from
+   * bitmaps built ahead of time, so the events aren't walked again for every request.
+   * Each step is a word-by-word OR over the requested attendees' bitmaps followed by
+   * a scan of the result; apart from a few fixed-size scratch bitmaps and the returned
+   * time slots, nothing is allocated, however many attendees there are.
+   */
+  public Collection<TimeRange> query(FreeBusyBitmap calendar, MeetingRequest request) {
+    long duration = request.getDuration();
+    long[] mandatoryBusy = FreeBusyBitmap.newBitmap();
+    calendar.orBusy(request.getAttendeeSet(), mandatoryBusy);
 
-                           .collect(Collectors.toList());
+    int minimumOptional = request.getMinimumOptionalAttendees();
+    if (minimumOptional > 0) {
+      return hasEnoughOptionalAttendees(request)
+          ? optionalAttendeeWindows(calendar, mandatoryBusy, request, false)
+              .findAtLeast(minimumOptional)
+          : new ArrayList<>();
+    }
 
-    Collection<TimeRange> mandatoryTimeRanges = findOpenTimeRanges(mandatoryEventTimes, request.getDuration());
+    if (request.getAttendees().isEmpty() && request.getOptionalAttendees().isEmpty()) {
+      return Arrays.asList(TimeRange.WHOLE_DAY);
+    }
 
-    Collection<TimeRange> maxOptions = findPossibleTimeSlots(optionalEvents,
-                                                             mandatoryTimeRanges, 
-                                                             request);
+    long[] everyoneBusy = mandatoryBusy.clone();
+    calendar.orBusy(request.getOptionalAttendeeSet(), everyoneBusy);
 
-    if (allAvailableTimeRanges.isEmpty() && !mandatoryTimeRanges.isEmpty()) {
-      if (maxOptions.isEmpty()) {
-          return mandatoryTimeRanges;
-      }
-      return maxOptions;
+    Collection<TimeRange> everyoneFree = FreeBusyBitmap.freeTimeRanges(everyoneBusy, duration);
+    if (!everyoneFree.isEmpty()) {
+      return everyoneFree;
     }
 
-    if (mandatoryTimeRanges.isEmpty() && !request.getOptionalAttendees().isEmpty()) {
-      return filterMaxOptions(Arrays.asList(TimeRange.WHOLE_DAY),
-                        optionalEvents, 
-                        request);
-
+    Collection<TimeRange> mandatoryFree = FreeBusyBitmap.freeTimeRanges(mandatoryBusy, duration);
+    if (mandatoryFree.isEmpty() || request.getAttendees().isEmpty()) {
+      return mandatoryFree;
     }
 
-    return allAvailableTimeRanges;
+    Collection<TimeRange> mostOptional =
+        optionalAttendeeWindows(calendar, mandatoryBusy, request, true).findBest();
+    return mostOptional.isEmpty() ? mandatoryFree : mostOptional;
   }
 
-  /** 
-   * This is a helper method for .query(). 
-   * It works by finding all the availabe {@code TimeRange} objects that 
-   * qualify for request. 
-   * @param separateTimeRanges - Sorted list of time ranges
-   * @param minimumDuration - The minimum amount of time a non-conflicting 
-   *                          time slot can be so that it is added to the 
-   *                          returned collection.
-   * @return - All the time slots that do not conflict with any element in
-   *          separateTimeRanges and is also longer than minimumDuration.
+  /**
+   * Splits the day into segments in which nobody's availability changes. Every start
+   * and end time of an event with a requested attendee becomes a boundary; the
+   * boundaries are sorted once and walked in order, keeping count of how many events
+   * each attendee is in at that moment.
+   *
+   * Events  :    |--A--|   |-C-|
+   *         :       |---C---|
+   * Segments: |-1-|-2-|-3-|-4-|-5-|--6--|
    */
-  public Collection<TimeRange> findOpenTimeRanges(Collection<TimeRange> separateTimeRanges, 
-                                                  long minimumDuration) {
-
-    // Resulting Collection
-    Collection<TimeRange> openTimeRanges = new ArrayList<>();
+  private static List<Segment> sweep(Collection<Event> events, MeetingRequest request) {
+    AttendeeSet attendees = request.getAttendeeSet();
+    AttendeeSet optionalAttendees = request.getOptionalAttendeeSet();
 
-    int currentMinTime = TimeRange.START_OF_DAY;
-    for (TimeRange tr : separateTimeRanges) {
-        
-      // If the end time of the current {@code TimeRange} is less than 
-      // {@code currentMinTime} then it should be disregarded 
-      // as it will not change  the value of {@code currentMinTime}
-      if (tr.end() <= currentMinTime) {
+    List<Boundary> boundaries = new ArrayList<>();
+    for (Event event : events) {
+      boolean mandatory = event.getAttendeeSet().intersects(attendees);
+      // Events without any requested attendee can't block the meeting.
+      if (!mandatory && !event.getAttendeeSet().intersects(optionalAttendees)) {
         continue;
       }
-
-      // If the current {@code TimeRange} contains {@code currentMinTime},
-      // it will change the value of {@code currentMinTime}, but will not
-      // influence the start time of the current open time slot.
-      else if (!tr.contains(currentMinTime)){
-        TimeRange newTR = TimeRange.fromStartEnd(currentMinTime, tr.start(), false);
-          // the duration of the current time slot needs to be greater than the 
-          // duration of {@code request} to be considered 
-          if(newTR.duration() >= minimumDuration) {
-            openTimeRanges.add(newTR);
-          }           
-        } 
-      currentMinTime = tr.end();
+      int start = Math.max(TimeRange.START_OF_DAY, event.getWhen().start());
+      int end = Math.min(DAY_LENGTH, event.getWhen().end());
+      if (start < end) {
+        boundaries.add(new Boundary(start, 1, mandatory, event.getAttendeeSet()));
+        boundaries.add(new Boundary(end, -1, mandatory, event.getAttendeeSet()));
+      }
     }
-    // Adding the final available time slot if possible.
-    TimeRange newTR = TimeRange.fromStartEnd(currentMinTime, TimeRange.END_OF_DAY, true);
-    if (newTR.duration() >= minimumDuration) {
-      openTimeRanges.add(newTR);
+    boundaries.sort(Comparator.comparingInt(boundary -> boundary.time));
+
+    List<Segment> segments = new ArrayList<>();
+    int mandatoryEvents = 0;
+    // Indexed by attendee id: how many of that optional attendee's events are under way.
+    int[] optionalEvents = new int[optionalAttendees.capacity()];
+    int busyOptionalAttendees = 0;
+    int next = 0;
+    int segmentStart = TimeRange.START_OF_DAY;
+    while (segmentStart < DAY_LENGTH) {
+      for (; next < boundaries.size() && boundaries.get(next).time == segmentStart; next++) {
+        Boundary boundary = boundaries.get(next);
+        if (boundary.mandatory) {
+          mandatoryEvents += boundary.delta;
+        }
+        for (int id = boundary.attendees.nextInIntersection(optionalAttendees, 0);
+             id != -1;
+             id = boundary.attendees.nextInIntersection(optionalAttendees, id + 1)) {
+          boolean wasBusy = optionalEvents[id] > 0;
+          optionalEvents[id] += boundary.delta;
+          boolean isBusy = optionalEvents[id] > 0;
+          if (wasBusy != isBusy) {
+            busyOptionalAttendees += isBusy ? 1 : -1;
+          }
+        }
+      }
+      int segmentEnd = next < boundaries.size() ? boundaries.get(next).time : DAY_LENGTH;
+      segments.add(new Segment(segmentStart, mandatoryEvents > 0, busyOptionalAttendees));
+      segmentStart = segmentEnd;
     }
-    return openTimeRanges;
+    return segments;
   }
 
   /**
-   * Creates a new Collection of TimeRange objects that contains time slots
-   * that permits the avialblity of ALL mandatory employees and AT LEAST 1
-   * optional attendee.
-   * Optional Event  :           |--C--|
-   * Mandaotry Events  :       |--A--|     |--B--|
-   * Available TimeRange :              |--|
-   * @param eventsList - Sorted list of events by start time
-   *                     to determine an available time
-   *                     for {@code request}
-   *
-   * @param mandatoryTimeRanges - Collection of {@code TimeRange} objects that permit
-   *                       permit availablity of all mandatory attendees in
-   *                        {@code request}
-   *
-   * @param request - Request to find open TimeRange objects with.
-   *
-   * @return A collection of {@code TimeRange} objects that contain availability
-   *         for all mandatory attendees and at least one optional attendee.
-   * 
+   * Joins neighbouring segments that are {@code free} into time slots and returns
+   * the ones that are at least {@code minimumDuration} long.
    */
-  public Collection<TimeRange> findPossibleTimeSlots(Collection<Event> optionalEvents,
-                                                     Collection<TimeRange> mandatoryTimeRanges,
-                                                     MeetingRequest request) {
-    
-    // Resulting Collection
-    Collection<TimeRange> possibleTimeSlots = new ArrayList<>();
-    
-    // Iterates through each {@code TimeRange} in {@code mandatoryTimeRanges}
-    // and each {@code Event} in {@code optionalEvents} and creates 
-    // TimeRange objects that allow an optional attendee to fit inside
-    // the same time span as an TimeRange object in mandatoryTimeRanges.
-    for (TimeRange timeRange : mandatoryTimeRanges) {
-      // current Min/Max time are set to -1 until a candidate is found for
-      // each value.
-      int currentMinTime = -1;
-      int currentMaxTime = -1;
-      for (Event event : optionalEvents) {
-        // If the event starts after the end of this available time slot,
-        // it can not fit inside the time span determined by this time slot
-        // so it is skipped. 
-        if (event.getWhen().start() >= timeRange.end()) {
-          continue;
-        }
-        if (event.getWhen().start() <= timeRange.start()) {
-          // if the event starts and ends before this {@code TimeRange}
-          // or starts before and ends after this TimeRange, it is
-          // also not able to fit inside the time span determined
-          // by the TimeRange.
-          if (event.getWhen().end() >= timeRange.end() ||
-              event.getWhen().end() <= timeRange.start()) {
-            continue;
-          } 
-          // If the event end before this TimeRange and ends during it,
-          // it marks the start of a possible new TimeRange that fits inside
-          // the bounds of the current TimeRange.
-          currentMinTime = event.getWhen().end();
-        }
-        // If the event starts before the end of this TimeRange,
-        // it marks the end of a new possible TimeRange.
-        if (event.getWhen().start() < timeRange.end()) {
-          currentMaxTime = event.getWhen().start();
-        }
-        // Once a pair is found, the TimeRange determined by current Min/Max time
-        // is added to {@code possibleTimeSlots} and these values are reset.
-        if (currentMinTime != -1 &&
-            currentMaxTime - currentMinTime >= request.getDuration()) {
-            possibleTimeSlots.add(TimeRange.fromStartEnd(currentMinTime,
-                                                      currentMaxTime,
-                                                      false));
-            currentMinTime = -1;
-            currentMaxTime = -1;
-        }
+  private static Collection<TimeRange> mergeFreeTime(List<Segment> segments,
+                                                     Predicate<Segment> free,
+                                                     long minimumDuration) {
+    Collection<TimeRange> openTimeRanges = new ArrayList<>();
+    int openStart = -1;
+    for (Segment segment : segments) {
+      if (!free.test(segment)) {
+        addIfLongEnough(openTimeRanges, openStart, segment.start, minimumDuration);
+        openStart = -1;
+      } else if (openStart == -1) {
+        openStart = segment.start;
       }
     }
-    return filterMaxOptions(possibleTimeSlots, optionalEvents, request);
+    addIfLongEnough(openTimeRanges, openStart, DAY_LENGTH, minimumDuration);
+    return openTimeRanges;
   }
 
   /**
-   * Filters the Collection returned by {@clink findPossibleTimeSlots} to
-   * find the time slots that permit the avilability of the highest possible
-   * optional attendees.
-   * 
-   * @param possibleTimeSlots - {@code TimeRange} Collection returned by 
-   *                            {@link findPossibleTimeSlots}.
-   * @param optionalEvents - Events that contain optional attendees determined by {@code request}.
-   * 
-   * @param request - Request to find open TimeRange objects for.
+   * Returns false if the request asks for more optional attendees than it has, in
+   * which case there is no point looking at anyone's events.
+   */
+  private static boolean hasEnoughOptionalAttendees(MeetingRequest request) {
+    return request.getOptionalAttendees().size() >= request.getMinimumOptionalAttendees();
+  }
+
+  /**
+   * Collects the busy time of the requested attendees, so it can be asked for the
+   * meetings that the most optional attendees, or enough of them, can make. A
+   * meeting's optional attendees are the ones free for all of it, so a slot can span
+   * changes in who is busy as long as no meeting in it does. Each optional attendee
+   * counts their weight if {@code weighted} is set, and 1 otherwise.
    *
-   * @return {@code TimeRange} Collection that allows the highest possible
-   *         optional Attendees and ALL mandatory attendees to attend the event
-   *         given in {@code request}.
+   * Optional  :   |--C--|  |-D-|
+   * Mandatory : |-A-|           |-B-|
+   * Slots     :     |-1-|-2|-3-|
    */
-  public Collection<TimeRange> filterMaxOptions(Collection<TimeRange> possibleTimeSlots,
-                                                Collection<Event> optionalEvents,
-                                                MeetingRequest request) {
-    // Resulting Collection
-    Collection<TimeRange> results = new ArrayList<>();
-    int maxOptionalAttendees = 0;
-    for (TimeRange timeRange : possibleTimeSlots) {
-      Collection<String> uniqueAttendees = new HashSet<>();
-      for (Event event : optionalEvents) {
-        if (event.getWhen().overlaps(timeRange)){
-          for (String attendee : event.getAttendees()) {
-              if (request.getOptionalAttendees().contains(attendee) &&
-                  !uniqueAttendees.contains(attendee)){
-                uniqueAttendees.add(attendee);
-              }
-          }
-        }
+  private static OptionalAttendeeWindows optionalAttendeeWindows(Collection<Event> events,
+                                                                 MeetingRequest request,
+                                                                 boolean weighted) {
+    OptionalAttendeeWindows windows = new OptionalAttendeeWindows(request.getDuration());
+    AttendeeSet attendees = request.getAttendeeSet();
+    AttendeeSet optionalAttendees = request.getOptionalAttendeeSet();
+    Map<Integer, List<TimeRange>> optionalBusy = new HashMap<>();
+    for (Event event : events) {
+      if (event.getAttendeeSet().intersects(attendees)) {
+        windows.addMandatoryBusy(event.getWhen().start(), event.getWhen().end());
       }
-      if (uniqueAttendees.size() >= maxOptionalAttendees) {
-        // If this TimeRange allows more optionalAttendees than than the
-        // the current value, the resulting list should be cleared
-        // as none of those TimeRange objects allow more optionalAttendees
-        // than the current TimeRange.
-        if (uniqueAttendees.size() > maxOptionalAttendees) {
-          results.clear();
-        }
-        results.add(timeRange);
-        maxOptionalAttendees = uniqueAttendees.size();
+      for (int id = event.getAttendeeSet().nextInIntersection(optionalAttendees, 0);
+           id != -1;
+           id = event.getAttendeeSet().nextInIntersection(optionalAttendees, id + 1)) {
+        optionalBusy.computeIfAbsent(id, key -> new ArrayList<>()).add(event.getWhen());
       }
+    }
+
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+    for (String attendee : request.getOptionalAttendees()) {
+      windows.addOptionalAttendee(weighted ? request.getOptionalAttendeeWeight(attendee) : 1,
+          optionalBusy.getOrDefault(dictionary.idOf(attendee), Collections.emptyList()));
+    }
+    return windows;
+  }
+
+  /**
+   * Bitmap version of
+   * {@link #optionalAttendeeWindows(Collection, MeetingRequest, boolean)}: the busy
+   * time comes from scanning runs of set bits instead of from events.
+   */
+  private static OptionalAttendeeWindows optionalAttendeeWindows(FreeBusyBitmap calendar,
+                                                                 long[] mandatoryBusy,
+                                                                 MeetingRequest request,
+                                                                 boolean weighted) {
+    OptionalAttendeeWindows windows = new OptionalAttendeeWindows(request.getDuration());
+    for (TimeRange busy : FreeBusyBitmap.busyTimeRanges(mandatoryBusy)) {
+      windows.addMandatoryBusy(busy.start(), busy.end());
+    }
+
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+    long[] attendeeBusy = FreeBusyBitmap.newBitmap();
+    for (String attendee : request.getOptionalAttendees()) {
+      Arrays.fill(attendeeBusy, 0);
+      calendar.orBusy(dictionary.idOf(attendee), attendeeBusy);
+      windows.addOptionalAttendee(weighted ? request.getOptionalAttendeeWeight(attendee) : 1,
+          FreeBusyBitmap.busyTimeRanges(attendeeBusy));
+    }
+    return windows;
+  }
+
+  private static void addIfLongEnough(Collection<TimeRange> results, int start, int end,
+                                      long minimumDuration) {
+    if (start != -1 && end - start >= minimumDuration) {
+      results.add(TimeRange.fromStartEnd(start, end, false));
+    }
+  }
 
+  /** The start (delta 1) or end (delta -1) of an event with requested attendees. */
+  private static final class Boundary {
+    private final int time;
+    private final int delta;
+    private final boolean mandatory;
+    private final AttendeeSet attendees;
+
+    Boundary(int time, int delta, boolean mandatory, AttendeeSet attendees) {
+      this.time = time;
+      this.delta = delta;
+      this.mandatory = mandatory;
+      this.attendees = attendees;
     }
-    return results;
   }
 
+  /** A stretch of the day, up to the next segment's start, in which nobody's availability changes. */
+  private static final class Segment {
+    private final int start;
+    private final boolean mandatoryBusy;
+    private final int busyOptionalAttendees;
+
+    Segment(int start, boolean mandatoryBusy, int busyOptionalAttendees) {
+      this.start = start;
+      this.mandatoryBusy = mandatoryBusy;
+      this.busyOptionalAttendees = busyOptionalAttendees;
+    }
+  }
 }
@@ -0,0 +1,187 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Each attendee's busy time for the day as a bitmap with one bit per minute. A day is
+ * 1440 minutes, so an attendee takes {@link #WORDS} longs, indexed by the ids handed
+ * out by {@link AttendeeDictionary}.
+ *
+ * <p>The bitmaps are built once from the events and are read-only afterwards, so one
+ * instance can answer any number of queries, from any number of threads. Combining
+ * attendees is a word-by-word OR into a caller-supplied bitmap, and free time is read
+ * back by scanning runs of clear bits, so neither allocates.
+ */
+public final class FreeBusyBitmap {
+
+  private static final int DAY_LENGTH = TimeRange.WHOLE_DAY.duration();
+
+  /** The number of longs in a bitmap: enough for one bit per minute of the day. */
+  public static final int WORDS = (DAY_LENGTH + 63) / 64;
+
+  // Indexed by attendee id; null for attendees without events.
+  private final long[][] busyByAttendee;
+
+  /**
+   * Builds the bitmaps for every attendee of {@code events}.
+   */
+  public FreeBusyBitmap(Collection<Event> events) {
+    long[][] busy = new long[0][];
+    for (Event event : events) {
+      int start = Math.max(TimeRange.START_OF_DAY, event.getWhen().start());
+      int end = Math.min(DAY_LENGTH, event.getWhen().end());
+      if (start >= end) {
+        continue;
+      }
+      AttendeeSet attendees = event.getAttendeeSet();
+      for (int id = attendees.next(0); id != -1; id = attendees.next(id + 1)) {
+        if (id >= busy.length) {
+          busy = Arrays.copyOf(busy, Math.max(id + 1, busy.length * 2));
+        }
+        if (busy[id] == null) {
+          busy[id] = newBitmap();
+        }
+        setRange(busy[id], start, end);
+      }
+    }
+    this.busyByAttendee = busy;
+  }
+
+  /**
+   * Returns an empty bitmap, i.e. a day with nothing booked.
+   */
+  public static long[] newBitmap() {
+    return new long[WORDS];
+  }
+
+  /**
+   * ORs the busy time of every attendee in {@code attendees} into {@code busy}, so it
+   * ends up busy whenever one of them is.
+   */
+  public void orBusy(AttendeeSet attendees, long[] busy) {
+    for (int id = attendees.next(0); id != -1; id = attendees.next(id + 1)) {
+      orBusy(id, busy);
+    }
+  }
+
+  /**
+   * ORs the busy time of the attendee with {@code id} into {@code busy}. An id of
+   * {@link AttendeeDictionary#NEVER_BUSY} adds nothing.
+   */
+  public void orBusy(int id, long[] busy) {
+    long[] attendeeBusy = bitmapOf(id);
+    if (attendeeBusy != null) {
+      for (int i = 0; i < WORDS; i++) {
+        busy[i] |= attendeeBusy[i];
+      }
+    }
+  }
+
+  /**
+   * Returns true if the attendee with {@code id} is busy at {@code minute}.
+   */
+  public boolean isBusy(int id, int minute) {
+    long[] attendeeBusy = bitmapOf(id);
+    return attendeeBusy != null && (attendeeBusy[minute >> 6] & (1L << minute)) != 0;
+  }
+
+  /**
+   * Returns the free time slots in {@code busy} that are at least
+   * {@code minimumDuration} long, in order.
+   */
+  public static Collection<TimeRange> freeTimeRanges(long[] busy, long minimumDuration) {
+    Collection<TimeRange> openTimeRanges = new ArrayList<>();
+    for (int start = nextFree(busy, 0); start < DAY_LENGTH; ) {
+      int end = nextBusy(busy, start);
+      if (end - start >= minimumDuration) {
+        openTimeRanges.add(TimeRange.fromStartEnd(start, end, false));
+      }
+      start = nextFree(busy, end);
+    }
+    return openTimeRanges;
+  }
+
+  /**
+   * Returns the booked stretches of {@code busy}, in order.
+   */
+  public static List<TimeRange> busyTimeRanges(long[] busy) {
+    List<TimeRange> busyTimeRanges = new ArrayList<>();
+    for (int start = nextBusy(busy, 0); start < DAY_LENGTH; ) {
+      int end = nextFree(busy, start);
+      busyTimeRanges.add(TimeRange.fromStartEnd(start, end, false));
+      start = nextBusy(busy, end);
+    }
+    return busyTimeRanges;
+  }
+
+  /**
+   * Returns the first minute from {@code minute} on that {@code busy} has booked, or
+   * the end of the day if there is none.
+   */
+  public static int nextBusy(long[] busy, int minute) {
+    return nextMatching(busy, 0, minute);
+  }
+
+  /**
+   * Returns the first minute from {@code minute} on that {@code busy} has free, or the
+   * end of the day if there is none.
+   */
+  public static int nextFree(long[] busy, int minute) {
+    return nextMatching(busy, -1L, minute);
+  }
+
+  // Finds the next bit of busy ^ flip that is set, i.e. the next busy minute when flip
+  // is 0 and the next free one when it is all ones.
+  private static int nextMatching(long[] busy, long flip, int minute) {
+    if (minute >= DAY_LENGTH) {
+      return DAY_LENGTH;
+    }
+    int i = minute >> 6;
+    long bits = (busy[i] ^ flip) & (-1L << minute);
+    while (bits == 0) {
+      if (++i == WORDS) {
+        return DAY_LENGTH;
+      }
+      bits = busy[i] ^ flip;
+    }
+    return Math.min(DAY_LENGTH, (i << 6) + Long.numberOfTrailingZeros(bits));
+  }
+
+  private long[] bitmapOf(int id) {
+    return id >= 0 && id < busyByAttendee.length ? busyByAttendee[id] : null;
+  }
+
+  // Sets the bits for minutes [start, end).
+  private static void setRange(long[] bits, int start, int end) {
+    int first = start >> 6;
+    int last = (end - 1) >> 6;
+    long firstMask = -1L << start;
+    long lastMask = -1L >>> (63 - ((end - 1) & 63));
+    if (first == last) {
+      bits[first] |= firstMask & lastMask;
+      return;
+    }
+    bits[first] |= firstMask;
+    for (int i = first + 1; i < last; i++) {
+      bits[i] = -1L;
+    }
+    bits[last] |= lastMask;
+  }
+}
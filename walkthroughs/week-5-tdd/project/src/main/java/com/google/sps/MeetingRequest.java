@@ -18,7 +18,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 public final class MeetingRequest {
 
@@ -36,9 +38,25 @@ public final class MeetingRequest {
   // Some optional attendees for this new meeting. Use a set to avoid duplicates.
   private final Collection<String> optional_attendees = new HashSet<>();
 
+  // How much each optional attendee matters when they can't all come. Attendees
+  // without an entry count 1.
+  private final Map<String, Integer> optional_attendee_weights = new HashMap<>();
+
+  // How many optional attendees must be able to come, or 0 to want as many as possible.
+  private int minimum_optional_attendees;
+
   // The duration of the meeting in minutes.
   private final long duration;
 
+  // The attendee collections as ids, leaving out names no event has, built on first
+  // use. They are transient so Gson neither sends nor expects them; it also skips the
+  // constructor, which is why they can't be built there. Each remembers the dictionary
+  // size it was built at, since a name left out then may have been interned since.
+  private transient AttendeeSet attendeeSet;
+  private transient int attendeeSetDictionarySize;
+  private transient AttendeeSet optionalAttendeeSet;
+  private transient int optionalAttendeeSetDictionarySize;
+
   public MeetingRequest(Collection<String> attendees, long duration) {
     this.duration = duration;
     this.attendees.addAll(attendees);
@@ -58,12 +76,97 @@ public final class MeetingRequest {
     return Collections.unmodifiableCollection(optional_attendees);
   }
 
+  /**
+   * Returns the required attendees that appear in some event as a bitset of ids.
+   */
+  public AttendeeSet getAttendeeSet() {
+    int dictionarySize = AttendeeDictionary.getInstance().size();
+    if (attendeeSet == null || attendeeSetDictionarySize != dictionarySize) {
+      attendeeSet = AttendeeSet.ofKnown(attendees);
+      attendeeSetDictionarySize = dictionarySize;
+    }
+    return attendeeSet;
+  }
+
+  /**
+   * Returns the optional attendees that appear in some event as a bitset of ids.
+   */
+  public AttendeeSet getOptionalAttendeeSet() {
+    int dictionarySize = AttendeeDictionary.getInstance().size();
+    if (optionalAttendeeSet == null || optionalAttendeeSetDictionarySize != dictionarySize) {
+      optionalAttendeeSet = AttendeeSet.ofKnown(optional_attendees);
+      optionalAttendeeSetDictionarySize = dictionarySize;
+    }
+    return optionalAttendeeSet;
+  }
+
+  /**
+   * Returns the weight of optional attendee {@code attendee}, 1 unless set otherwise.
+   */
+  public int getOptionalAttendeeWeight(String attendee) {
+    // Requests from JSON that leave the weights out don't run the field initializer.
+    Integer weight =
+        optional_attendee_weights == null ? null : optional_attendee_weights.get(attendee);
+    return weight == null ? 1 : weight;
+  }
+
   /**
    * Adds one optional attendee for the meeting.
    */
   public void addOptionalAttendee(String attendee) {
+    addOptionalAttendee(attendee, 1);
+  }
+
+  /**
+   * Adds one optional attendee for the meeting who counts {@code weight} times as
+   * much as an attendee of weight 1 when not every optional attendee can come.
+   */
+  public void addOptionalAttendee(String attendee, int weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("Weights must be positive.");
+    }
     if (!attendees.contains(attendee)) {
       optional_attendees.add(attendee);
+      optional_attendee_weights.put(attendee, weight);
+      optionalAttendeeSet = null;
+    }
+  }
+
+  /**
+   * Returns how many optional attendees must be able to come, or 0 if the meeting
+   * should suit as many of them as possible.
+   */
+  public int getMinimumOptionalAttendees() {
+    return minimum_optional_attendees;
+  }
+
+  /**
+   * Requires at least {@code minimum} optional attendees to be able to come, rather
+   * than as many as possible. Pass 0 to go back to as many as possible.
+   */
+  public void setMinimumOptionalAttendees(int minimum) {
+    if (minimum < 0) {
+      throw new IllegalArgumentException("The minimum can't be negative.");
+    }
+    minimum_optional_attendees = minimum;
+  }
+
+  /**
+   * Checks what the setters check, for requests that Gson filled in directly: every
+   * weight must be positive and the minimum can't be negative.
+   *
+   * @throws IllegalArgumentException if the request breaks either rule.
+   */
+  public void validate() {
+    if (optional_attendee_weights != null) {
+      for (Integer weight : optional_attendee_weights.values()) {
+        if (weight == null || weight < 1) {
+          throw new IllegalArgumentException("Weights must be positive.");
+        }
+      }
+    }
+    if (minimum_optional_attendees < 0) {
+      throw new IllegalArgumentException("The minimum can't be negative.");
     }
   }
 
@@ -0,0 +1,208 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds where a meeting of a fixed length can start so that every mandatory attendee
+ * is free for all of it, along with how much optional attendee weight is free for all
+ * of it at each start. It can look for the most weight or for at least a given weight.
+ *
+ * <p>A busy stretch [s, e) rules out every start in [s - duration + 1, e). Each
+ * attendee's busy time becomes such blocked intervals, merged per attendee so nobody
+ * is subtracted twice; sorting their ends once and sweeping them with a running sum
+ * gives the free weight at every start in O((E + A) log E). Weights are summed as
+ * longs, so even attendees of weight {@link Integer#MAX_VALUE} can't overflow them.
+ */
+final class OptionalAttendeeWindows {
+
+  private static final int DAY_LENGTH = TimeRange.WHOLE_DAY.duration();
+
+  private final int duration;
+  // One past the last minute a meeting can start and still end by the end of the day.
+  private final int startLimit;
+  private final List<Boundary> boundaries = new ArrayList<>();
+  private long totalWeight;
+
+  OptionalAttendeeWindows(long duration) {
+    // A zero-length meeting still has to start at a free minute.
+    this.duration = (int) Math.max(1, Math.min(duration, DAY_LENGTH + 1));
+    this.startLimit = DAY_LENGTH - this.duration + 1;
+  }
+
+  /**
+   * Rules out every start at which the meeting would overlap [start, end).
+   */
+  void addMandatoryBusy(int start, int end) {
+    addBlocked(start - duration + 1, end, 1, 0);
+  }
+
+  /**
+   * Adds an optional attendee with {@code weight} who is busy during {@code busy}, in
+   * any order and possibly overlapping.
+   */
+  void addOptionalAttendee(int weight, List<TimeRange> busy) {
+    totalWeight += weight;
+    List<TimeRange> sorted = new ArrayList<>(busy);
+    sorted.sort(TimeRange.ORDER_BY_START);
+    int blockedStart = -1;
+    int blockedEnd = -1;
+    for (TimeRange range : sorted) {
+      int start = range.start() - duration + 1;
+      if (blockedEnd != -1 && start <= blockedEnd) {
+        blockedEnd = Math.max(blockedEnd, range.end());
+        continue;
+      }
+      if (blockedEnd != -1) {
+        addBlocked(blockedStart, blockedEnd, 0, weight);
+      }
+      blockedStart = start;
+      blockedEnd = range.end();
+    }
+    if (blockedEnd != -1) {
+      addBlocked(blockedStart, blockedEnd, 0, weight);
+    }
+  }
+
+  /**
+   * Returns the times that meetings starting where the most optional weight is free
+   * can take up. Only starts at which some optional weight is free count, so if every
+   * start that suits the mandatory attendees leaves all optional weight out, the
+   * result is empty rather than every such start; callers fall back to the mandatory
+   * attendees' free time themselves.
+   */
+  Collection<TimeRange> findBest() {
+    List<Window> windows = sweep(1);
+    long best = 0;
+    for (Window window : windows) {
+      best = Math.max(best, window.freeWeight);
+    }
+    Collection<TimeRange> results = new ArrayList<>();
+    for (Window window : windows) {
+      if (window.freeWeight == best) {
+        addRange(results, window.start, window.end);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns the times that meetings starting where at least {@code minimumFreeWeight}
+   * optional weight is free can take up, joining meetings that overlap.
+   */
+  Collection<TimeRange> findAtLeast(int minimumFreeWeight) {
+    Collection<TimeRange> results = new ArrayList<>();
+    // Everyone together falls short, so no start can do better.
+    if (totalWeight < minimumFreeWeight) {
+      return results;
+    }
+    int runStart = -1;
+    int runEnd = -1;
+    for (Window window : sweep(minimumFreeWeight)) {
+      if (window.start != runEnd) {
+        addRange(results, runStart, runEnd);
+        runStart = window.start;
+      }
+      runEnd = window.end;
+    }
+    addRange(results, runStart, runEnd);
+    return results;
+  }
+
+  /**
+   * Splits the possible starts into runs in which the free optional weight doesn't
+   * change, keeping only those with at least {@code minimumFreeWeight} and leaving out
+   * starts that clash with a mandatory attendee.
+   */
+  private List<Window> sweep(int minimumFreeWeight) {
+    boundaries.sort(Comparator.comparingInt(boundary -> boundary.time));
+    List<Window> windows = new ArrayList<>();
+    int mandatoryBusy = 0;
+    long blockedWeight = 0;
+    int next = 0;
+    int start = 0;
+    while (start < startLimit) {
+      for (; next < boundaries.size() && boundaries.get(next).time == start; next++) {
+        mandatoryBusy += boundaries.get(next).mandatoryDelta;
+        blockedWeight += boundaries.get(next).weightDelta;
+      }
+      int end = next < boundaries.size() ? boundaries.get(next).time : startLimit;
+      long freeWeight = totalWeight - blockedWeight;
+      if (mandatoryBusy == 0 && freeWeight >= minimumFreeWeight) {
+        addWindow(windows, start, end, freeWeight);
+      }
+      start = end;
+    }
+    return windows;
+  }
+
+  // Joins onto the previous window when it ends where this one starts with the same weight.
+  private static void addWindow(List<Window> windows, int start, int end, long freeWeight) {
+    if (!windows.isEmpty()) {
+      Window last = windows.get(windows.size() - 1);
+      if (last.end == start && last.freeWeight == freeWeight) {
+        windows.set(windows.size() - 1, new Window(last.start, end, freeWeight));
+        return;
+      }
+    }
+    windows.add(new Window(start, end, freeWeight));
+  }
+
+  // Adds the time taken up by meetings starting anywhere in [start, end), if there are any.
+  private void addRange(Collection<TimeRange> results, int start, int end) {
+    if (start != -1) {
+      results.add(TimeRange.fromStartEnd(start, end - 1 + duration, false));
+    }
+  }
+
+  private void addBlocked(int start, int end, int mandatory, int weight) {
+    start = Math.max(0, start);
+    end = Math.min(startLimit, end);
+    if (start < end) {
+      boundaries.add(new Boundary(start, mandatory, weight));
+      boundaries.add(new Boundary(end, -mandatory, -weight));
+    }
+  }
+
+  /** Where a blocked interval of starts begins (positive deltas) or ends (negative). */
+  private static final class Boundary {
+    private final int time;
+    private final int mandatoryDelta;
+    private final long weightDelta;
+
+    Boundary(int time, int mandatoryDelta, long weightDelta) {
+      this.time = time;
+      this.mandatoryDelta = mandatoryDelta;
+      this.weightDelta = weightDelta;
+    }
+  }
+
+  /** The starts [start, end), at each of which {@code freeWeight} optional weight is free. */
+  private static final class Window {
+    private final int start;
+    private final int end;
+    private final long freeWeight;
+
+    Window(int start, int end, long freeWeight) {
+      this.start = start;
+      this.end = end;
+      this.freeWeight = freeWeight;
+    }
+  }
+}
@@ -16,6 +16,7 @@ package com.google.sps.servlets;
 
 import com.google.sps.Events;
 import com.google.sps.FindMeetingQuery;
+import com.google.sps.FreeBusyBitmap;
 import com.google.sps.MeetingRequest;
 import com.google.sps.TimeRange;
 import com.google.gson.Gson;
@@ -29,17 +30,27 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
+
+  // The events never change, so their bitmaps are built once and shared by every query.
+  private static final FreeBusyBitmap CALENDAR =
+      new FreeBusyBitmap(Arrays.asList(Events.events));
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     Gson gson = new Gson();
 
     // Convert the JSON to an instance of MeetingRequest.
     MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
+    try {
+      meetingRequest.validate();
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
 
     // Find the possible meeting times.
     FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
-    Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+    Collection<TimeRange> answer = findMeetingQuery.query(CALENDAR, meetingRequest);
 
     // Convert the times to JSON
     String jsonResponse = gson.toJson(answer);
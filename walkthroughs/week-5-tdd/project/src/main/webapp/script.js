@@ -92,10 +92,15 @@ function timeToString(totalMinutes) {
  * Request for possible meeting times.
  */
 class MeetingRequest {
-  constructor(duration, attendees, optional_attendees) {
+  constructor(duration, attendees, optional_attendees, optional_attendee_weights = {},
+      minimum_optional_attendees = 0) {
     this.duration = duration;
     this.attendees = attendees;
     this.optional_attendees = optional_attendees;
+    // Maps optional attendee names to weights; anyone left out counts 1.
+    this.optional_attendee_weights = optional_attendee_weights;
+    // How many optional attendees must be able to come; 0 means as many as possible.
+    this.minimum_optional_attendees = minimum_optional_attendees;
   }
 }
 
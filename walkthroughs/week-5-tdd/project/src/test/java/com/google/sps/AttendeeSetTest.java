@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class AttendeeSetTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  @Test
+  public void internIsStable() {
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+    Assert.assertEquals(dictionary.intern(PERSON_A), dictionary.intern(PERSON_A));
+    Assert.assertNotEquals(dictionary.intern(PERSON_A), dictionary.intern(PERSON_B));
+  }
+
+  @Test
+  public void unknownNamesAreLeftOutWithoutInterning() {
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+    dictionary.intern(PERSON_A);
+    int size = dictionary.size();
+
+    AttendeeSet known = AttendeeSet.ofKnown(Arrays.asList(PERSON_A, "Person in no event"));
+
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_A)), known);
+    Assert.assertEquals(AttendeeDictionary.NEVER_BUSY, dictionary.idOf("Person in no event"));
+    Assert.assertEquals(size, dictionary.size());
+  }
+
+  @Test
+  public void intersection() {
+    AttendeeSet ab = AttendeeSet.of(Arrays.asList(PERSON_A, PERSON_B));
+    AttendeeSet bc = AttendeeSet.of(Arrays.asList(PERSON_B, PERSON_C));
+    AttendeeSet c = AttendeeSet.of(Arrays.asList(PERSON_C));
+
+    Assert.assertTrue(ab.intersects(bc));
+    Assert.assertFalse(ab.intersects(c));
+    Assert.assertFalse(ab.intersects(AttendeeSet.EMPTY));
+    Assert.assertEquals(1, ab.intersectionSize(bc));
+    Assert.assertEquals(0, ab.intersectionSize(c));
+  }
+
+  @Test
+  public void sizeAndContains() {
+    AttendeeSet set = AttendeeSet.of(Arrays.asList(PERSON_A, PERSON_B, PERSON_A));
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+
+    Assert.assertEquals(2, set.size());
+    Assert.assertTrue(set.contains(dictionary.intern(PERSON_A)));
+    Assert.assertFalse(set.contains(dictionary.intern(PERSON_C)));
+    Assert.assertEquals(0, AttendeeSet.EMPTY.size());
+  }
+
+  @Test
+  public void spansSeveralWords() {
+    // More than 64 people, so the ids need more than one word.
+    List<String> everyone = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      everyone.add("Person " + i);
+    }
+    AttendeeSet all = AttendeeSet.of(everyone);
+    AttendeeSet last = AttendeeSet.of(Collections.singletonList("Person 199"));
+
+    Assert.assertEquals(200, all.size());
+    Assert.assertTrue(all.intersects(last));
+    Assert.assertEquals(1, all.intersectionSize(last));
+  }
+
+  @Test
+  public void visitsIntersectionInOrder() {
+    List<String> everyone = new ArrayList<>();
+    for (int i = 0; i < 150; i++) {
+      everyone.add("Visited " + i);
+    }
+    AttendeeSet all = AttendeeSet.of(everyone);
+    AttendeeSet some = AttendeeSet.of(Arrays.asList("Visited 3", "Visited 70", "Visited 149"));
+
+    List<Integer> visited = new ArrayList<>();
+    for (int id = all.nextInIntersection(some, 0);
+         id != -1;
+         id = all.nextInIntersection(some, id + 1)) {
+      visited.add(id);
+    }
+
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+    Assert.assertEquals(Arrays.asList(dictionary.intern("Visited 3"),
+                                      dictionary.intern("Visited 70"),
+                                      dictionary.intern("Visited 149")),
+                        visited);
+  }
+
+  @Test
+  public void equalityIgnoresOrder() {
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_A, PERSON_B)),
+                        AttendeeSet.of(Arrays.asList(PERSON_B, PERSON_A)));
+    Assert.assertNotEquals(AttendeeSet.of(Arrays.asList(PERSON_A)),
+                           AttendeeSet.of(Arrays.asList(PERSON_B)));
+  }
+}
@@ -70,6 +70,26 @@ public final class FindMeetingQueryTest {
     Assert.assertEquals(expected, actual);
   }
 
+  @Test
+  public void requestSeesAttendeesInternedAfterItsFirstQuery() {
+    // Nobody has heard of the attendee when the request is first asked about, so the
+    // request's attendee set leaves them out. It must not keep doing so once an event
+    // has them.
+    String newcomer = "Person first seen after the request";
+    MeetingRequest request = new MeetingRequest(Arrays.asList(newcomer), DURATION_1_HOUR);
+    Assert.assertEquals(Arrays.asList(TimeRange.WHOLE_DAY), query.query(NO_EVENTS, request));
+
+    Collection<Event> events = Arrays.asList(new Event("Event 1",
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_1000AM, false),
+        Arrays.asList(newcomer)));
+
+    Collection<TimeRange> actual = query.query(events, request);
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TIME_1000AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+  }
+
   @Test
   public void noOptionsForTooLongOfARequest() {
     // The duration should be longer than a day. This means there should be no options.
@@ -482,6 +502,184 @@ public final class FindMeetingQueryTest {
     Collection<TimeRange> actual = query.query(events, request);
     Collection<TimeRange> expected = Arrays.asList(TimeRange.fromStartEnd(TIME_1120, TIME_1140, false));
     Assert.assertEquals(expected, actual);
-  }    
+  }
+
+  @Test
+  public void noOptionsWhenMandatoryAttendeeIsBusyAllDay() {
+    // The only mandatory attendee is busy all day, so no optional attendee can change that.
+    //
+    // Events  : |----------A----------|
+    //         :    |--C--|
+    // Day     : |---------------------|
+    // Options :
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.WHOLE_DAY, Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+            Arrays.asList(OPTIONAL_PERSON_C)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(OPTIONAL_PERSON_C);
+
+    Collection<TimeRange> actual = query.query(events, request);
+    Collection<TimeRange> expected = Arrays.asList();
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void optionalAttendeesFreeAcrossSeveralGaps() {
+    // No gap between optional events is an hour long, but the hour from 9:30 fits
+    // B, C and D, and only E is busy during it.
+    //
+    // Events  : |--A--|                   |--A--|
+    //         :       |-B-|      |-C-|
+    //         :       |-D-|      |-D-|
+    //         :           |E|
+    // Day     : |---------------------------------|
+    // Options :       |-----1-----|
+
+    int TIME_0945AM = TimeRange.getTimeInMinutes(9, 45);
+    int TIME_0950AM = TimeRange.getTimeInMinutes(9, 50);
+    int TIME_1030AM = TimeRange.getTimeInMinutes(10, 30);
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0900AM, false),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_1100AM, TimeRange.END_OF_DAY, true),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 3", TimeRange.fromStartEnd(TIME_0900AM, TIME_0930AM, false),
+            Arrays.asList(PERSON_B, "Person D")),
+        new Event("Event 4", TimeRange.fromStartEnd(TIME_1030AM, TIME_1100AM, false),
+            Arrays.asList(OPTIONAL_PERSON_C, "Person D")),
+        new Event("Event 5", TimeRange.fromStartEnd(TIME_0945AM, TIME_0950AM, false),
+            Arrays.asList("Person E")));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B);
+    request.addOptionalAttendee(OPTIONAL_PERSON_C);
+    request.addOptionalAttendee("Person D");
+    request.addOptionalAttendee("Person E");
+
+    Collection<TimeRange> actual = query.query(events, request);
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TIME_0930AM, TIME_1030AM, false));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void weightedOptionalAttendees() {
+    // B and C can't both make it. Unweighted, either half of the day will do; once C
+    // counts three times as much, only the afternoon is left.
+    //
+    // Events  :             |------B------|
+    //         : |-----C-----|
+    // Day     : |-------------------------|
+    // Options : |-----1-----|                  (unweighted)
+    //         :             |------2------|    (unweighted)
+    //         :             |------1------|    (weighted)
+
+    int TIME_1200PM = TimeRange.getTimeInMinutes(12, 0);
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_1200PM, TimeRange.END_OF_DAY, true),
+            Arrays.asList(PERSON_B)),
+        new Event("Event 2", TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_1200PM, false),
+            Arrays.asList(OPTIONAL_PERSON_C)));
+
+    MeetingRequest unweighted = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    unweighted.addOptionalAttendee(PERSON_B);
+    unweighted.addOptionalAttendee(OPTIONAL_PERSON_C);
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_1200PM, false),
+        TimeRange.fromStartEnd(TIME_1200PM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(expected, query.query(events, unweighted));
+
+    MeetingRequest weighted = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    weighted.addOptionalAttendee(PERSON_B);
+    weighted.addOptionalAttendee(OPTIONAL_PERSON_C, 3);
+
+    expected = Arrays.asList(TimeRange.fromStartEnd(TIME_1200PM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(expected, query.query(events, weighted));
+  }
+
+  @Test
+  public void hugeWeightsDontOverflow() {
+    // Same day as above, with weights whose int sum would wrap around: C still counts
+    // for more than B, so the afternoon is still the only option.
+    int TIME_1200PM = TimeRange.getTimeInMinutes(12, 0);
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_1200PM, TimeRange.END_OF_DAY, true),
+            Arrays.asList(PERSON_B)),
+        new Event("Event 2", TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_1200PM, false),
+            Arrays.asList(OPTIONAL_PERSON_C)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B, Integer.MAX_VALUE - 1);
+    request.addOptionalAttendee(OPTIONAL_PERSON_C, Integer.MAX_VALUE);
+
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TIME_1200PM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(expected, query.query(events, request));
+    Assert.assertEquals(expected, query.query(new FreeBusyBitmap(events), request));
+  }
+
+  @Test
+  public void atLeastSomeOptionalAttendees() {
+    // A is mandatory; at least two of B, C and D have to make the whole hour.
+    //
+    // Events  :       |-A-|--B--|          |--D--|
+    //         :             |---C---|
+    // Day     : |-------------------------------------|
+    // Options : |--1--|         |--------2------------|    (at least 2)
+    //         : |--1--|             |-2-|      |--3---|    (all 3)
+
+    int TIME_1300PM = TimeRange.getTimeInMinutes(13, 0);
+    int TIME_1400PM = TimeRange.getTimeInMinutes(14, 0);
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false),
+            Arrays.asList(PERSON_B)),
+        new Event("Event 3", TimeRange.fromStartEnd(TIME_0930AM, TIME_1100AM, false),
+            Arrays.asList(OPTIONAL_PERSON_C)),
+        new Event("Event 4", TimeRange.fromStartEnd(TIME_1300PM, TIME_1400PM, false),
+            Arrays.asList("Person D")));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B);
+    request.addOptionalAttendee(OPTIONAL_PERSON_C);
+    request.addOptionalAttendee("Person D");
+    request.setMinimumOptionalAttendees(2);
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_1000AM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(expected, query.query(events, request));
 
+    request.setMinimumOptionalAttendees(3);
+
+    expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_1100AM, TIME_1300PM, false),
+        TimeRange.fromStartEnd(TIME_1400PM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(expected, query.query(events, request));
+  }
+
+  @Test
+  public void moreOptionalAttendeesRequiredThanInvited() {
+    // Nobody is busy, but asking for two optional attendees out of one can't work.
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B);
+    request.setMinimumOptionalAttendees(2);
+
+    Collection<TimeRange> actual = query.query(NO_EVENTS, request);
+    Collection<TimeRange> expected = Arrays.asList();
+
+    Assert.assertEquals(expected, actual);
+  }
 }
@@ -0,0 +1,129 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class FreeBusyBitmapTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_NOBODY_KNOWS = "Person Nobody Knows";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+  private static final int TIME_1100AM = TimeRange.getTimeInMinutes(11, 0);
+
+  @Test
+  public void freeTimeAroundEvents() {
+    FreeBusyBitmap calendar = new FreeBusyBitmap(Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_1000AM, TIME_1100AM, false),
+            Arrays.asList(PERSON_B))));
+
+    long[] busy = FreeBusyBitmap.newBitmap();
+    calendar.orBusy(AttendeeSet.of(Arrays.asList(PERSON_A, PERSON_B)), busy);
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false),
+        TimeRange.fromStartEnd(TIME_1100AM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(expected, FreeBusyBitmap.freeTimeRanges(busy, 60));
+
+    // Only the long stretches are left once the meeting is longer than an hour.
+    Collection<TimeRange> longer = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_1100AM, TimeRange.END_OF_DAY, true));
+    Assert.assertEquals(longer, FreeBusyBitmap.freeTimeRanges(busy, 61));
+  }
+
+  @Test
+  public void eventsAcrossWordBoundaries() {
+    // Minutes 63 and 64 sit in different words, and the day ends partway through the last.
+    FreeBusyBitmap calendar = new FreeBusyBitmap(Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(63, 65, false), Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartEnd(100, 1440, false),
+            Arrays.asList(PERSON_A))));
+
+    long[] busy = FreeBusyBitmap.newBitmap();
+    calendar.orBusy(AttendeeSet.of(Arrays.asList(PERSON_A)), busy);
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(0, 63, false),
+        TimeRange.fromStartEnd(65, 100, false));
+    Assert.assertEquals(expected, FreeBusyBitmap.freeTimeRanges(busy, 1));
+    Assert.assertEquals(1440, FreeBusyBitmap.nextFree(busy, 100));
+    Assert.assertEquals(Arrays.asList(TimeRange.fromStartEnd(63, 65, false),
+                                      TimeRange.fromStartEnd(100, 1440, false)),
+                        FreeBusyBitmap.busyTimeRanges(busy));
+  }
+
+  @Test
+  public void attendeesWithoutEventsAreFree() {
+    FreeBusyBitmap calendar = new FreeBusyBitmap(Arrays.asList(
+        new Event("Event 1", TimeRange.WHOLE_DAY, Arrays.asList(PERSON_A))));
+
+    long[] busy = FreeBusyBitmap.newBitmap();
+    calendar.orBusy(AttendeeSet.of(Arrays.asList(PERSON_NOBODY_KNOWS)), busy);
+
+    Assert.assertEquals(Arrays.asList(TimeRange.WHOLE_DAY),
+        FreeBusyBitmap.freeTimeRanges(busy, 60));
+    AttendeeDictionary dictionary = AttendeeDictionary.getInstance();
+    Assert.assertFalse(calendar.isBusy(dictionary.intern(PERSON_B), 0));
+    Assert.assertTrue(calendar.isBusy(dictionary.intern(PERSON_A), 0));
+  }
+
+  @Test
+  public void matchesSweepOnRandomCalendars() {
+    // The same calendar answers many requests, and has to agree with the sweep on each.
+    Random random = new Random(42);
+    FindMeetingQuery query = new FindMeetingQuery();
+    for (int round = 0; round < 50; round++) {
+      List<Event> events = new ArrayList<>();
+      for (int i = 0; i < 30; i++) {
+        int start = random.nextInt(1440);
+        int end = start + 1 + random.nextInt(Math.min(180, 1440 - start));
+        events.add(new Event("Event " + i, TimeRange.fromStartEnd(start, end, false),
+            Arrays.asList(randomPerson(random), randomPerson(random))));
+      }
+      FreeBusyBitmap calendar = new FreeBusyBitmap(events);
+
+      for (int i = 0; i < 20; i++) {
+        MeetingRequest request =
+            new MeetingRequest(Arrays.asList(randomPerson(random)), 1 + random.nextInt(120));
+        for (int j = random.nextInt(4); j > 0; j--) {
+          request.addOptionalAttendee(randomPerson(random), 1 + random.nextInt(3));
+        }
+        request.setMinimumOptionalAttendees(random.nextInt(3));
+        Assert.assertEquals(query.query(events, request), query.query(calendar, request));
+      }
+    }
+  }
+
+  private static String randomPerson(Random random) {
+    return "Random Person " + random.nextInt(12);
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.sps;
 
+import com.google.gson.Gson;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -44,4 +45,95 @@ public final class MeetingRequestTest {
     int expected = 0;
     Assert.assertEquals(expected, actual);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void attendeeSetsFollowAttendees() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B);
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_B)), request.getOptionalAttendeeSet());
+
+    request.addOptionalAttendee(PERSON_C);
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_B, PERSON_C)),
+                        request.getOptionalAttendeeSet());
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_A)), request.getAttendeeSet());
+  }
+
+  @Test
+  public void attendeeSetsAreBuiltForRequestsFromJson() {
+    String json = "{\"duration\":60,\"attendees\":[\"Person A\"],"
+        + "\"optional_attendees\":[\"Person B\"]}";
+    MeetingRequest request = new Gson().fromJson(json, MeetingRequest.class);
+
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_A)), request.getAttendeeSet());
+    Assert.assertEquals(AttendeeSet.of(Arrays.asList(PERSON_B)), request.getOptionalAttendeeSet());
+  }
+
+  @Test
+  public void optionalAttendeeWeightsDefaultToOne() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B);
+    request.addOptionalAttendee(PERSON_C, 3);
+
+    Assert.assertEquals(1, request.getOptionalAttendeeWeight(PERSON_B));
+    Assert.assertEquals(3, request.getOptionalAttendeeWeight(PERSON_C));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void optionalAttendeeWeightsMustBePositive() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.addOptionalAttendee(PERSON_B, 0);
+  }
+
+  @Test
+  public void optionalAttendeeWeightsFromJson() {
+    String json = "{\"duration\":60,\"attendees\":[\"Person A\"],"
+        + "\"optional_attendees\":[\"Person B\",\"Person C\"],"
+        + "\"optional_attendee_weights\":{\"Person C\":2}}";
+    MeetingRequest request = new Gson().fromJson(json, MeetingRequest.class);
+    Assert.assertEquals(1, request.getOptionalAttendeeWeight(PERSON_B));
+    Assert.assertEquals(2, request.getOptionalAttendeeWeight(PERSON_C));
+
+    // Older clients leave the weights out altogether.
+    String unweighted = "{\"duration\":60,\"attendees\":[\"Person A\"],"
+        + "\"optional_attendees\":[\"Person B\"]}";
+    request = new Gson().fromJson(unweighted, MeetingRequest.class);
+    Assert.assertEquals(1, request.getOptionalAttendeeWeight(PERSON_B));
+  }
+
+  @Test
+  public void minimumOptionalAttendeesDefaultsToNone() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    Assert.assertEquals(0, request.getMinimumOptionalAttendees());
+
+    request.setMinimumOptionalAttendees(2);
+    Assert.assertEquals(2, request.getMinimumOptionalAttendees());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void minimumOptionalAttendeesCantBeNegative() {
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    request.setMinimumOptionalAttendees(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void validateRejectsNonPositiveWeightsFromJson() {
+    String json = "{\"duration\":60,\"attendees\":[\"Person A\"],"
+        + "\"optional_attendees\":[\"Person B\"],"
+        + "\"optional_attendee_weights\":{\"Person B\":-3}}";
+    new Gson().fromJson(json, MeetingRequest.class).validate();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void validateRejectsNegativeMinimumFromJson() {
+    String json = "{\"duration\":60,\"attendees\":[\"Person A\"],"
+        + "\"minimum_optional_attendees\":-1}";
+    new Gson().fromJson(json, MeetingRequest.class).validate();
+  }
+
+  @Test
+  public void validateAcceptsRequestsWithoutWeights() {
+    String json = "{\"duration\":60,\"attendees\":[\"Person A\"],"
+        + "\"optional_attendees\":[\"Person B\"]}";
+    new Gson().fromJson(json, MeetingRequest.class).validate();
+  }
+}